@@ -6,11 +6,15 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.stream.Collectors;
 
-import javax.net.ssl.HandshakeCompletedEvent;
-import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLParameters;
 import javax.net.ssl.SSLProtocolException;
@@ -37,16 +41,34 @@ import net.winrob.proteus.api.request.ProteusWebSocketRequestImpl;
 import net.winrob.proteus.api.response.ProteusHttpResponse;
 import net.winrob.proteus.api.response.ProteusHttpResponseImpl;
 import net.winrob.proteus.api.response.ResponseCode;
+import net.winrob.proteus.compression.CompressionCache;
 import net.winrob.proteus.compression.CompressionEncoding;
+import net.winrob.proteus.compression.DictionaryStore;
 import net.winrob.proteus.configuration.EndpointType;
 import net.winrob.proteus.error.ErrorResponse;
-import net.winrob.proteus.header.ProteusHeaderBuilder;
 import net.winrob.proteus.header.ProteusHttpHeaders;
+import net.winrob.proteus.http.AcceptEncoding;
+import net.winrob.proteus.http.ClientConnection;
+import net.winrob.proteus.http.ConnectionReader;
+import net.winrob.proteus.http.KnownHeader;
+import net.winrob.proteus.http.MalformedRequestException;
+import net.winrob.proteus.http.RequestHead;
 import net.winrob.proteus.routing.CompositeRouter;
 import net.winrob.proteus.routing.HttpRoute;
 import net.winrob.proteus.routing.WebSocketRoute;
+import net.winrob.proteus.server.AcceptBackoff;
+import net.winrob.proteus.server.ConnectionExecutor;
+import net.winrob.proteus.server.ConnectionMode;
+import net.winrob.proteus.server.EndpointOptions;
+import net.winrob.proteus.server.HandshakeExecutor;
+import net.winrob.proteus.server.ReusePort;
+import net.winrob.proteus.server.RouteCache;
+import net.winrob.proteus.server.ServerMetrics;
+import net.winrob.proteus.server.Transport;
+import net.winrob.proteus.server.nio.NioConnection;
+import net.winrob.proteus.server.nio.NioHandler;
+import net.winrob.proteus.server.nio.NioTransport;
 import net.winrob.proteus.server.api.ObjectInstantiator;
-import net.winrob.proteus.util.StreamUtils;
 
 /**
  * Server class which sets up server socket and listens for new connections.
@@ -61,13 +83,34 @@ public class ProteusServer {
 	
 	private Set<CompositeRouter> routers;
 	
-	private Thread listenThread;
+	private List<Thread> listenThreads;
+	private List<ServerSocket> serverSockets;
 	
 	private boolean running;
 	private boolean stopped;
 	
 	private EventDispatcher dispatcher;
 	
+	private ConnectionMode connectionMode;
+	private Executor connectionExecutor;
+	private ConnectionExecutor handlerExecutor;
+	private final ServerMetrics metrics;
+	
+	private int keepAliveTimeout;
+	private int keepAliveMax;
+	
+	private Map<Integer, EndpointOptions> endpointOptions;
+	private Map<CompositeRouter, RouteCache> routeCaches;
+	private Map<CompositeRouter, CompressionCache> compressionCaches;
+	private Map<CompositeRouter, DictionaryStore> dictionaryStores;
+	private List<NioTransport> transports;
+	private List<ExecutorService> workerPools;
+	
+	private int handshakeThreads;
+	private int handshakeQueue;
+	private int handshakeDeadline;
+	private HandshakeExecutor handshakeExecutor;
+	
 	/**
 	 * Creates a new server which listens according to the router(s) provided.
 	 * 
@@ -80,6 +123,91 @@ public class ProteusServer {
 		running = false;
 		stopped = true;
 		dispatcher = new EventDispatcher(appName);
+		connectionMode = ConnectionMode.PLATFORM;
+		metrics = new ServerMetrics();
+		keepAliveTimeout = 30000;
+		keepAliveMax = 100;
+		endpointOptions = new HashMap<>();
+		routeCaches = new HashMap<>();
+		compressionCaches = new HashMap<>();
+		dictionaryStores = new HashMap<>();
+		listenThreads = new ArrayList<>();
+		serverSockets = new ArrayList<>();
+		transports = new ArrayList<>();
+		workerPools = new ArrayList<>();
+		handshakeThreads = Math.max(2, Runtime.getRuntime().availableProcessors());
+		handshakeQueue = 1024;
+		handshakeDeadline = 10000;
+	}
+	
+	/**
+	 * Sizes the pool which runs TLS handshakes for secure endpoints. Has no effect once the server is running.
+	 * 
+	 * @param threads The number of handshakes run at once.
+	 * @param queueCapacity The number of accepted sockets which may wait for a handshake, further sockets are closed.
+	 * @param deadline The time, in milliseconds, after which an incomplete handshake is closed.
+	 */
+	public void setHandshakePool(int threads, int queueCapacity, int deadline) {
+		if (!running) {
+			handshakeThreads = threads;
+			handshakeQueue = queueCapacity;
+			handshakeDeadline = deadline;
+		}
+	}
+	
+	/**
+	 * Gets the server-side options of an endpoint, creating the defaults if none have been set. Changes made once
+	 * the server is running have no effect.
+	 * 
+	 * @param port The port of the endpoint.
+	 * @return The {@link EndpointOptions} of the endpoint.
+	 */
+	public EndpointOptions getEndpointOptions(int port) {
+		return endpointOptions.computeIfAbsent(port, p -> new EndpointOptions());
+	}
+	
+	/**
+	 * Sets the keep-alive limits advertised to and enforced on HTTP/1.1 clients. Has no effect once the server is running.
+	 * 
+	 * @param timeout The time, in milliseconds, an idle connection is kept open.
+	 * @param max The maximum number of requests served on a single connection.
+	 */
+	public void setKeepAlive(int timeout, int max) {
+		if (!running) {
+			keepAliveTimeout = timeout;
+			keepAliveMax = max;
+		}
+	}
+	
+	/**
+	 * Sets the strategy used to run client connection handlers. Has no effect once the server is running.
+	 * 
+	 * @param mode The {@link ConnectionMode} to be used, {@link ConnectionMode#EXECUTOR} requires {@link #setConnectionExecutor(Executor)}.
+	 */
+	public void setConnectionMode(ConnectionMode mode) {
+		if (!running) {
+			connectionMode = mode;
+		}
+	}
+	
+	/**
+	 * Sets an executor to run client connection handlers and switches to {@link ConnectionMode#EXECUTOR}.
+	 * Has no effect once the server is running.
+	 * 
+	 * @param executor The {@link Executor} which will run connection handlers.
+	 */
+	public void setConnectionExecutor(Executor executor) {
+		if (!running) {
+			connectionExecutor = executor;
+			connectionMode = ConnectionMode.EXECUTOR;
+		}
+	}
+	
+	/**
+	 * @return The {@link ConnectionMode} used to run client connection handlers.
+	 */
+	public ConnectionMode getConnectionMode() {
+		return handlerExecutor != null ? handlerExecutor.getMode() : connectionMode;
 	}
 	
 	/**
@@ -91,70 +219,156 @@ public class ProteusServer {
 				System.err.println("Failed to start " + app.getClass().getCanonicalName() + "! No router");
 				return;
 			}
+			handlerExecutor = connectionMode == ConnectionMode.EXECUTOR
+					? new ConnectionExecutor(connectionExecutor, metrics)
+					: new ConnectionExecutor(appName + "-ClientHandler", connectionMode, metrics);
+			handshakeExecutor = new HandshakeExecutor(appName, handshakeThreads, handshakeQueue, handshakeDeadline, metrics);
 			running = true;
 			stopped = false;
 			for (CompositeRouter router : routers) {
-				listenThread = new Thread(() -> {
-	
-					try {
-						ServerSocket server = router.createSocket();
-						new ListenerThreadSpawnedEvent(server, router).dispatchImmediately(dispatcher);
-						while (running) {
-							Socket client = server.accept();
-							try {
-								if (router.isSecure() && router.getTypes().contains(EndpointType.HTTP2)) {
-									SSLSocket sslClient = (SSLSocket) client;
-									sslClient.setHandshakeApplicationProtocolSelector((sock, list) -> {
-										boolean hasH11 = false;
-										boolean hasH2 = false;
-										for (String ap : list) {
-											switch(ap) {
-											case "h2":
-												hasH2 = true;
-												break;
-											case "http/1.1":
-												hasH11 = true;
-												break;
-											default:
-												break;
-											}
-										}
-										if (hasH2) return "h2";
-										if (hasH11 && router.getTypes().contains(EndpointType.HTTP1_1)) return "http/1.1";
-										return null;
-									});
-									sslClient.addHandshakeCompletedListener(new HandshakeCompletedListener() {
-
-										@Override
-										public void handshakeCompleted(HandshakeCompletedEvent event) {
-											new SSLHandshakeCompletedEventImpl(sslClient, router).dispatch(dispatcher);;
-										}
-										
-									});
-									sslClient.startHandshake();
-								} else {
-									new ClientAcceptEventImpl(client, router).dispatch(dispatcher);
-								}
-							} catch (SocketException e) {
-								client.close();
-							} catch (SSLHandshakeException e) {
+				EndpointOptions options = getEndpointOptions(router.getPort());
+				routeCaches.put(router, new RouteCache(router, options.getRouteCacheSize()));
+				if (options.getCompressionCacheSize() > 0) {
+					compressionCaches.put(router, new CompressionCache(options.getCompressionCacheSize(), metrics.getCompression()));
+				}
+				if (options.getDictionaryStoreSize() > 0) {
+					dictionaryStores.put(router, new DictionaryStore(options.getDictionaryStoreSize()));
+				}
+				if (options.getTransport() == Transport.NIO && !router.isSecure()) {
+					startNioTransport(router, options);
+				} else {
+					startListeners(router, options);
+				}
+			}
+			Proteus.addServer(this);
+		}
+	}
+	
+	// Opens the blocking listener thread(s) of an endpoint, with SO_REUSEPORT each acceptor binds its own socket.
+	private void startListeners(CompositeRouter router, EndpointOptions options) {
+		boolean reusePort = options.isReusePort() && !router.isSecure() && ReusePort.isSupported();
+		ServerSocket shared = null;
+		try {
+			for (int i = 0; i < options.getAcceptors(); i++) {
+				ServerSocket server;
+				if (reusePort) {
+					server = ReusePort.openSocket(options.getBindAddress(), router.getPort(), options.getBacklog());
+				} else {
+					if (shared == null) {
+						// cleartext sockets may be accepted through a channel so file responses are sent with sendfile,
+						// others keep the router's socket and its settings
+						shared = options.isZeroCopyFiles() && !router.isSecure() ? ReusePort.openChannel(options.getBindAddress(), router.getPort(), options.getBacklog(), false).socket() : router.createSocket();
+					}
+					server = shared;
+				}
+				if (!serverSockets.contains(server)) serverSockets.add(server);
+				startListenThread(router, server, i, () -> acceptLoop(server, router));
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println("Port " + router.getPort() + " opened in " + String.join(", ", router.getTypes().stream().map(e -> e.getProtocolName()).collect(Collectors.toList())) + " mode(s)" + (router.isSecure() ? " (secure)" : "") + (options.getAcceptors() > 1 ? " with " + options.getAcceptors() + " acceptors" + (reusePort ? " (reuseport)" : "") : "") + ".");
+	}
+	
+	// Opens a non-blocking reactor for a cleartext endpoint, its accept loops run on the listener threads.
+	private void startNioTransport(CompositeRouter router, EndpointOptions options) {
+		Executor workers = handlerExecutor;
+		if (handlerExecutor.getMode() == ConnectionMode.PLATFORM) {
+			ExecutorService pool = handlerExecutor.newWorkerPool(appName + "-NioWorker-" + router.getPort(), options.getWorkers());
+			workerPools.add(pool);
+			workers = pool;
+		}
+		NioTransport transport = new NioTransport(appName + "-" + router.getPort(), router, options, new NioHandlerImpl(router), workers, keepAliveTimeout, keepAliveMax);
+		try {
+			transport.open();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		transports.add(transport);
+		for (int i = 0; i < options.getAcceptors(); i++) {
+			int acceptor = i;
+			startListenThread(router, transport.getServerSocket(acceptor), acceptor, () -> transport.acceptLoop(acceptor));
+		}
+		System.out.println("Port " + router.getPort() + " opened in " + String.join(", ", router.getTypes().stream().map(e -> e.getProtocolName()).collect(Collectors.toList())) + " mode(s) (nio).");
+	}
+	
+	private void startListenThread(CompositeRouter router, ServerSocket server, int acceptor, Runnable acceptLoop) {
+		Thread listenThread = new Thread(() -> {
+			new ListenerThreadSpawnedEvent(server, router).dispatchImmediately(dispatcher);
+			acceptLoop.run();
+		});
+		listenThread.setName(appName + "-Listener-" + router.getPort() + "-" + acceptor);
+		listenThreads.add(listenThread);
+		listenThread.start();
+	}
+	
+	private void acceptLoop(ServerSocket server, CompositeRouter router) {
+		AcceptBackoff backoff = new AcceptBackoff();
+		while (running) {
+			Socket client;
+			try {
+				client = server.accept();
+				backoff.accepted();
+			} catch (IOException e) {
+				if (running && !server.isClosed()) {
+					e.printStackTrace();
+					backoff.failed();
+					continue;
+				}
+				return;
+			}
+			try {
+				if (router.isSecure() && router.getTypes().contains(EndpointType.HTTP2)) {
+					SSLSocket sslClient = (SSLSocket) client;
+					sslClient.setHandshakeApplicationProtocolSelector((sock, list) -> {
+						boolean hasH11 = false;
+						boolean hasH2 = false;
+						for (String ap : list) {
+							switch(ap) {
+							case "h2":
+								hasH2 = true;
+								break;
+							case "http/1.1":
+								hasH11 = true;
+								break;
+							default:
+								break;
+							}
+						}
+						if (hasH2) return "h2";
+						if (hasH11 && router.getTypes().contains(EndpointType.HTTP1_1)) return "http/1.1";
+						return null;
+					});
+					handshakeExecutor.handshake(sslClient, new HandshakeExecutor.HandshakeTask() {
+						
+						@Override
+						public void completed() {
+							new SSLHandshakeCompletedEventImpl(sslClient, router).dispatch(dispatcher);
+						}
+						
+						@Override
+						public void failed(Exception e) {
+							if (e instanceof SSLHandshakeException) {
 								System.err.println("SSL failed: " + e.getMessage());
-								client.close();
-							} catch (Exception e) {
+							} else if (!(e instanceof SocketException)) {
 								e.printStackTrace();
-								client.close();
 							}
 						}
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
 						
-				});
-				listenThread.setName(appName + "-Listener");
-				listenThread.start();
-				System.out.println("Port " + router.getPort() + " opened in " + String.join(", ", router.getTypes().stream().map(e -> e.getProtocolName()).collect(Collectors.toList())) + " mode(s)" + (router.isSecure() ? " (secure)" : "") + ".");
+					});
+				} else {
+					new ClientAcceptEventImpl(client, router).dispatch(dispatcher);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+				try {
+					client.close();
+				} catch (IOException e1) {
+					// ignore
+				}
 			}
-			Proteus.addServer(this);
 		}
 	}
 	
@@ -163,105 +377,107 @@ public class ProteusServer {
 	}
 	
 	/**
-	 * Handle a new client connection, which must be an HTTP/1.1 connection (but may be a websocket upgrade request).
+	 * Serves requests on an HTTP/1.1 connection until the client or the keep-alive limits end it.
 	 * 
-	 * @param client The new client connection to be handled.
+	 * @param connection The client connection to be handled.
+	 * @return True if the connection should be upgraded to h2 (prior knowledge).
 	 * @throws IOException If there is an error reading from the socket.
 	 */
-	private boolean clientHandlerH11(Socket client, CompositeRouter router) throws IOException {
-		InputStream inputStream = client.getInputStream();
-		
-		StringBuilder requestBuilder = new StringBuilder();
-        String line;
-	    while ((line = StreamUtils.readLine(inputStream, true)).length() < 4) {
-	    	if (client.isInputShutdown()) return false;
-	    }
-	    if (line.equals("PRI * HTTP/2.0") && !router.isSecure()) {
-	    	// upgrade insecure connection to h2 (prior knowledge)
-	    	return true;
-	    }
-        do {
-        	requestBuilder.append(line + "\r\n");
-        } while (!(line = StreamUtils.readLine(inputStream, true)).isEmpty());
-        
-        
-        String requestString = requestBuilder.toString();
-        String[] requestsLines = requestString.split("\r\n");
-        String[] requestLine = requestsLines[0].split(" ");
-        String method = requestLine[0];
-        String path = requestLine[1];
-        String version = requestLine[2];
-
-        ProteusHeaderBuilder headerBuilder = ProteusHeaderBuilder.newBuilder();
-        for (int h = 1; h < requestsLines.length; h++) {
-        	String header = requestsLines[h];
-        	String[] headerSplit = header.split(":", 2);
-        	if (headerSplit.length == 1 && headerSplit[0].length() > 0) {
-        		headerBuilder.putHeader(headerSplit[0].trim(), null);
-        	} else if (headerSplit.length == 2 && headerSplit[0].length() > 0 && headerSplit[1].length() > 0) {
-        		headerBuilder.putHeader(headerSplit[0].trim(), headerSplit[1].trim());
-        	} else {
-        		// TODO error
-        	}
-        }
-        ProteusHttpHeaders headers = headerBuilder.toHeaders();
-        new RequestReceivedEventImpl(client, router, headers, method, path, version).dispatch(dispatcher);
+	private boolean clientLoopH11(ClientConnection connection) throws IOException {
+		try {
+			while (connection.isOpen()) {
+				if (clientHandlerH11(connection)) {
+					return true;
+				}
+				if (!connection.awaitResume()) {
+					break;
+				}
+			}
+		} finally {
+			if (!connection.isDetached()) {
+				connection.close();
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Handle a single request on a client connection, which must be an HTTP/1.1 connection (but may be a websocket upgrade request).
+	 * 
+	 * @param connection The client connection to be handled.
+	 * @return True if the connection should be upgraded to h2 (prior knowledge).
+	 * @throws IOException If there is an error reading from the socket.
+	 */
+	private boolean clientHandlerH11(ClientConnection connection) throws IOException {
+		CompositeRouter router = connection.getRouter();
+		RequestHead head;
+		try {
+			head = connection.getHeadParser().read(connection.getReader());
+		} catch (MalformedRequestException e) {
+			ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.BAD_REQUEST, connection.getOutputStream());
+			return false;
+		}
+		if (head == null) {
+			connection.finish();
+			return false;
+		}
+		if (head.getMethod().equals("PRI") && head.getVersion().equals("HTTP/2.0") && !router.isSecure()) {
+			// upgrade insecure connection to h2 (prior knowledge)
+			connection.detach();
+			return true;
+		}
+		connection.requestStarted();
+        new RequestReceivedEventImpl(connection, head).dispatch(dispatcher);
         return false;
 	}
 	
 	private final String[] connectionPrefaceLines = new String[] {"PRI * HTTP/2.0", "", "SM", ""};
 	
-	private void clientHandlerH2(Socket client, CompositeRouter router, boolean skipFirstPrefaceLine) throws IOException {
-		InputStream inputStream = client.getInputStream();
-		
+	private void clientHandlerH2(Socket client, ConnectionReader reader, CompositeRouter router, int prefaceLinesRead) throws IOException {
 		// read connection preface
-		if (!skipFirstPrefaceLine) {
-			String preface0 = StreamUtils.readLine(inputStream, true);
-			if (!preface0.equals(connectionPrefaceLines[0])) {
-				client.close();
-				return;
-			}
-		}
-		for (int i = 1; i <= 3; i++) {
-			String pline = StreamUtils.readLine(inputStream, true);
+		for (int i = prefaceLinesRead; i <= 3; i++) {
+			String pline = reader.readLine(true);
 			if (!pline.equals(connectionPrefaceLines[i])) {
 				client.close();
 				return;
 			}
 		}
 		
-		new ProteusH2ConnectionImpl(client, router).start();
+		new ProteusH2ConnectionImpl(client, reader, router).start();
 	}
 	
-	private void routeRequest(RequestReceivedEvent event, Socket client, CompositeRouter router) throws IOException {
+	private void routeRequest(RequestReceivedEventImpl event, ClientConnection connection) throws IOException {
+		Socket client = connection.getClient();
+		CompositeRouter router = connection.getRouter();
 		String method = event.getMethod();
 		String path = event.getPath();
 		String version = event.getVersion();
-		ProteusHttpHeaders headers = event.getHeaders();
+		RequestHead head = event.getHead();
         if (version.equals("HTTP/1.1")) {
         	if (method.equals("GET") && event.isWebSocket()) {
-        		ProteusWebSocketRequestImpl request = new ProteusWebSocketRequestImpl(client, path, headers, router);
+        		ProteusWebSocketRequestImpl request = new ProteusWebSocketRequestImpl(client, path, head.getHeaders(), routeCaches.get(router));
         		if (request.routed()) {
-        			new WebSocketContextRoutedEventImpl(client, request).dispatch(dispatcher);
+        			// responses to earlier pipelined requests must be written before the socket is handed over
+        			connection.flush();
+        			connection.detach();
+        			new WebSocketContextRoutedEventImpl(client, connection.getReader(), request).dispatch(dispatcher);
         		} else {
-        			ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.NOT_FOUND, client.getOutputStream());
+        			ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.NOT_FOUND, connection.getOutputStream());
 	        	}
         	} else {
-	        	CompressionEncoding ce = headers.hasHeader("Accept-Encoding") ? 
-	    				CompressionEncoding.forAcceptHeader(headers.getHeader("Accept-Encoding").getFirst().getValue()) : 
-	    					CompressionEncoding.NONE;
-	        	ProteusHttpRequestImpl request = new ProteusHttpRequestImpl(client, method, version, path, headers, router, dispatcher);
-	        	ClientKeepAliveEvent keepAlive = headers.hasHeader("Connection")
-	        			&& headers.getHeader("Connection").getFirst().getValue().equalsIgnoreCase("keep-alive")
-	        			? new ClientKeepAliveEventImpl(client, router) : null;
+	        	CompressionEncoding ce = AcceptEncoding.negotiate(head.getHeader(KnownHeader.ACCEPT_ENCODING));
+	        	ProteusHttpRequestImpl request = new ProteusHttpRequestImpl(connection.getInputStream(), client.getInetAddress(), head, routeCaches.get(router), dispatcher);
+	        	ClientKeepAliveEvent keepAlive = head.hasToken(KnownHeader.CONNECTION, "keep-alive")
+	        			&& connection.canKeepAlive()
+	        			? new ClientKeepAliveEventImpl(connection, request) : null;
 	        	if (request.routed()) {
-	        		new HttpContextRoutedEventImpl(this, client, request, keepAlive, ce, method).dispatch(dispatcher);
+	        		new HttpContextRoutedEventImpl(this, connection, request, keepAlive, ce, method).dispatch(dispatcher);
 	        	} else {
-	        		ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.NOT_FOUND, client.getOutputStream());
+	        		ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.NOT_FOUND, connection.getOutputStream());
 	        	}
         	}
         } else {
-        	ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.HTTP_VERSION_NOT_SUPPORTED, client.getOutputStream());
+        	ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.HTTP_VERSION_NOT_SUPPORTED, connection.getOutputStream());
         }
 	}
 	
@@ -271,6 +487,24 @@ public class ProteusServer {
 	public void stop() {
 		if (running) {
 			running = false;
+			for (ServerSocket server : serverSockets) {
+				try {
+					server.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+			serverSockets.clear();
+			listenThreads.clear();
+			for (NioTransport transport : transports) {
+				transport.close();
+			}
+			transports.clear();
+			for (ExecutorService pool : workerPools) {
+				pool.shutdown();
+			}
+			workerPools.clear();
+			handshakeExecutor.shutdown();
 			ProteusWebSocketConnectionManager.getConnectionManager().closeAll();
 			stopped = true;
 			Proteus.removeServer(this);
@@ -295,6 +529,13 @@ public class ProteusServer {
 		return dispatcher;
 	}
 	
+	/**
+	 * @return The {@link ServerMetrics} recorded by this server.
+	 */
+	public ServerMetrics getMetrics() {
+		return metrics;
+	}
+	
 	/**
 	 * @return The routers being used by the server.
 	 */
@@ -308,31 +549,84 @@ public class ProteusServer {
 	 */
 	
 	private void startHandlerThread(Socket client, CompositeRouter router, String ap) {
-		Thread handler = new Thread(() -> {
-			try {
-				if (!client.isClosed()) {
-					client.setSoTimeout(30000);
-					boolean shouldH2 = ap.equals("h2");
-					if (!shouldH2) {
-						if (clientHandlerH11(client, router)) {
-							clientHandlerH2(client, router, true);
-						}
-					} else {
-						clientHandlerH2(client, router, false);
-					}
-				}
-			} catch(SSLProtocolException e) {
-				
-			} catch(SSLHandshakeException e) {
-				
-			} catch(SocketTimeoutException e) {
-				
-			} catch (IOException e) {
-				e.printStackTrace();
+		handlerExecutor.execute(() -> runHandler(client, () -> {
+			boolean shouldH2 = ap.equals("h2");
+			if (!shouldH2) {
+				handleH11(configure(new ClientConnection(client, router, keepAliveTimeout, keepAliveMax)));
+			} else {
+				client.setSoTimeout(keepAliveTimeout);
+				clientHandlerH2(client, new ConnectionReader(client.getInputStream()), router, 0);
 			}
-		});
-		handler.setName(appName + "-ClientHandler");
-		handler.start();
+		}));
+	}
+	
+	// Applies the options of the connection's endpoint.
+	private ClientConnection configure(ClientConnection connection) {
+		EndpointOptions options = endpointOptions.get(connection.getRouter().getPort());
+		connection.setMaxHeadSize(options.getMaxHeadSize());
+		connection.setPipelineDepth(options.getPipelineDepth());
+		connection.setHandlerTimeout(options.getHandlerTimeout());
+		return connection;
+	}
+	
+	private void handleH11(ClientConnection connection) throws IOException {
+		if (clientLoopH11(connection)) {
+			connection.flush();
+			// the request line and empty line of the preface were read as a request head
+			clientHandlerH2(connection.getClient(), connection.getReader(), connection.getRouter(), 2);
+		}
+	}
+	
+	private void runHandler(Socket client, ConnectionTask task) {
+		try {
+			if (!client.isClosed()) {
+				task.run();
+			}
+		} catch(SSLProtocolException e) {
+			
+		} catch(SSLHandshakeException e) {
+			
+		} catch(SocketTimeoutException e) {
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	private interface ConnectionTask {
+		
+		void run() throws IOException;
+		
+	}
+	
+	private class NioHandlerImpl implements NioHandler {
+		
+		private final CompositeRouter router;
+		
+		public NioHandlerImpl(CompositeRouter router) {
+			this.router = router;
+		}
+
+		@Override
+		public void handle(NioConnection connection, RequestHead head) {
+			connection.requestStarted();
+			new RequestReceivedEventImpl(connection, head).dispatch(dispatcher);
+		}
+
+		@Override
+		public void reject(NioConnection connection, ResponseCode code) {
+			ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, code, connection.getOutputStream());
+		}
+
+		@Override
+		public void fallback(NioConnection connection, byte[] buffered) {
+			Socket client = connection.getClient();
+			handlerExecutor.execute(() -> runHandler(client, () -> {
+				ConnectionReader reader = new ConnectionReader(client.getInputStream(), buffered);
+				handleH11(configure(new ClientConnection(client, router, reader, client.getOutputStream(), keepAliveTimeout, keepAliveMax)));
+			}));
+		}
+		
 	}
 	
 	private class ClientAcceptEventImpl extends ClientAcceptEvent {
@@ -374,40 +668,38 @@ public class ProteusServer {
 	
 	private class RequestReceivedEventImpl extends RequestReceivedEvent {
 		
-		private final Socket client;
+		private final ClientConnection connection;
 		private final CompositeRouter router;
-		private final ProteusHttpHeaders headers;
-		private final String method;
-		private final String path;
-		private final String version;
+		private final RequestHead head;
 		
-		public RequestReceivedEventImpl(Socket client, CompositeRouter router, ProteusHttpHeaders headers, String method, String path, String version) {
-			this.client = client;
-			this.router = router;
-			this.headers = headers;
-			this.method = method;
-			this.path = path;
-			this.version = version;
+		public RequestReceivedEventImpl(ClientConnection connection, RequestHead head) {
+			this.connection = connection;
+			this.router = connection.getRouter();
+			this.head = head;
+		}
+		
+		public RequestHead getHead() {
+			return head;
 		}
 
 		@Override
 		public ProteusHttpHeaders getHeaders() {
-			return headers;
+			return head.getHeaders();
 		}
 
 		@Override
 		public String getMethod() {
-			return method;
+			return head.getMethod();
 		}
 
 		@Override
 		public String getPath() {
-			return path;
+			return head.getPath();
 		}
 
 		@Override
 		public String getVersion() {
-			return version;
+			return head.getVersion();
 		}
 
 		@Override
@@ -417,15 +709,17 @@ public class ProteusServer {
 
 		@Override
 		public boolean isWebSocket() {
-			return headers.hasHeader("Sec-WebSocket-Key");
+			return head.hasHeader(KnownHeader.SEC_WEBSOCKET_KEY);
 		}
 
 		@Override
 		protected boolean run() {
 			try {
-				routeRequest(this, client, router);
-			} catch (IOException e) {
+				routeRequest(this, connection);
+			} catch (Throwable e) {
+				// the connection would otherwise wait for a response which is never written
 				e.printStackTrace();
+				connection.finish();
 				return false;
 			}
 			return true;
@@ -440,10 +734,10 @@ public class ProteusServer {
 		
 		private final ProteusWebSocketConnection connection;
 		
-		public WebSocketContextRoutedEventImpl(Socket client, ProteusWebSocketRequestImpl request) throws IOException {
+		public WebSocketContextRoutedEventImpl(Socket client, InputStream inputStream, ProteusWebSocketRequestImpl request) throws IOException {
 			this.client = client;
 			this.request = request;
-			this.connection = new ProteusWebSocketConnectionImpl(client, request);
+			this.connection = new ProteusWebSocketConnectionImpl(client, inputStream, request);
 		}
 		
 		@Override
@@ -476,7 +770,7 @@ public class ProteusServer {
 	
 	private class HttpContextRoutedEventImpl extends HttpContextRoutedEvent {
 		
-		private final Socket client;
+		private final ClientConnection connection;
 		private final ProteusHttpRequestImpl request;
 		private final ClientKeepAliveEvent keepAlive;
 		private final CompressionEncoding compression;
@@ -484,13 +778,19 @@ public class ProteusServer {
 		
 		private final ProteusHttpResponseImpl response;
 		
-		public HttpContextRoutedEventImpl(ProteusServer server, Socket client, ProteusHttpRequestImpl request, ClientKeepAliveEvent keepAlive, CompressionEncoding compression, String method) throws IOException {
-			this.client = client;
+		public HttpContextRoutedEventImpl(ProteusServer server, ClientConnection connection, ProteusHttpRequestImpl request, ClientKeepAliveEvent keepAlive, CompressionEncoding compression, String method) throws IOException {
+			this.connection = connection;
 			this.request = request;
 			this.compression = compression;
 			this.method = method;
 			this.keepAlive = keepAlive;
-			this.response = new ProteusHttpResponseImpl(server, keepAlive, client.getOutputStream(), compression);
+			this.response = new ProteusHttpResponseImpl(server, connection, keepAlive, compression, request.getHead());
+			EndpointOptions options = endpointOptions.get(connection.getRouter().getPort());
+			response.setETagMode(options.getETagMode());
+			response.setCompressionCache(compressionCaches.get(connection.getRouter()));
+			response.setPrecompressedFiles(options.isPrecompressedFiles());
+			response.setDictionaryStore(dictionaryStores.get(connection.getRouter()));
+			response.setCompressionPolicy(options.getCompressionPolicy(request.getPath()), metrics.getCompression());
 		}
 
 		@Override
@@ -498,16 +798,24 @@ public class ProteusServer {
 			try {
 				switch(method) {
 	        	case "GET":
+	        	case "HEAD":
 	        	case "POST":
 	        		request.getContext().handle(request, response);
 	        		break;
 	        	default:
-	        		ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.METHOD_NOT_ALLOWED, client.getOutputStream());
+	        		ErrorResponse.sendUnmodifiableErrorResponse(dispatcher, ResponseCode.METHOD_NOT_ALLOWED, connection.getOutputStream());
 	        		return false;
 	        	}
 				return true;
-			} catch (IOException e) {
+			} catch (Throwable e) {
 				e.printStackTrace();
+				if (response.isStarted() && !response.isCompleted()) {
+					// part of the response may have been written, the client cannot tell where it was cut short
+					connection.finish();
+					connection.close();
+				} else if (!response.isCompleted()) {
+					connection.finish();
+				}
 				return false;
 			}
 		}
@@ -536,27 +844,33 @@ public class ProteusServer {
 	
 	private class ClientKeepAliveEventImpl extends ClientKeepAliveEvent {
 		
-		private final Socket client;
-		private final CompositeRouter router;
+		private final ClientConnection connection;
+		private final ProteusHttpRequestImpl request;
 		
-		public ClientKeepAliveEventImpl(Socket client, CompositeRouter router) {
-			this.client = client;
-			this.router = router;
+		public ClientKeepAliveEventImpl(ClientConnection connection, ProteusHttpRequestImpl request) {
+			this.connection = connection;
+			this.request = request;
 		}
 
 		@Override
 		public Socket getClientSocket() {
-			return client;
+			return connection.getClient();
 		}
 
 		@Override
 		public CompositeRouter getRouter() {
-			return router;
+			return connection.getRouter();
 		}
 
 		@Override
 		protected boolean run() {
-			startHandlerThread(client, router, "http/1.1");
+			try {
+				request.discardBody();
+			} catch (Throwable e) {
+				connection.finish();
+				return false;
+			}
+			connection.resume();
 			return true;
 		}
 		
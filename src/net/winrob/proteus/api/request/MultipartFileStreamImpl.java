@@ -24,7 +24,8 @@ public class MultipartFileStreamImpl extends InputStream implements MultipartFil
 	 * @param fileName The name, from the client, of this file.
 	 * @param contentType The content type of this file.
 	 * @param inputStream An active input stream which can be used to read this file to active or physical memory.
-	 * @param size The size, in bytes, of this file.
+	 * @param size The size, in bytes, of this file, or -1 if it is only known once the stream ends (as for a body
+	 * decoded while it is read).
 	 */
 	public MultipartFileStreamImpl(InputStream content, String fieldName, String fileName, String contentType, int size) {
 		this.content = content;
@@ -70,12 +71,36 @@ public class MultipartFileStreamImpl extends InputStream implements MultipartFil
 
 	@Override
 	public int read() throws IOException {
-		if (read < size) {
-			read++;
-			return content.read();
+		if (size < 0 || read < size) {
+			int b = content.read();
+			if (b >= 0) {
+				read++;
+				return b;
+			}
+		}
+		deleted = true;
+		return -1;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (size < 0 || read < size) {
+			int n = content.read(b, off, size < 0 ? len : Math.min(len, size - read));
+			if (n > 0) {
+				read += n;
+				return n;
+			}
 		}
 		deleted = true;
 		return -1;
 	}
 	
+	@Override
+	public void close() throws IOException {
+		content.close();
+	}
+	
 }
@@ -13,6 +13,7 @@ import net.winrob.proteus.api.h2.FrameType;
 import net.winrob.proteus.api.h2.H2Setting;
 import net.winrob.proteus.api.h2.Stream;
 import net.winrob.proteus.api.h2.StreamImpl;
+import net.winrob.proteus.http.ConnectionReader;
 import net.winrob.proteus.routing.CompositeRouter;
 
 public class ProteusH2ConnectionImpl {
@@ -27,9 +28,13 @@ public class ProteusH2ConnectionImpl {
 	private Map<H2Setting, Integer> settings;
 	
 	public ProteusH2ConnectionImpl(Socket client, CompositeRouter router) throws IOException {
+		this(client, new ConnectionReader(client.getInputStream()), router);
+	}
+	
+	public ProteusH2ConnectionImpl(Socket client, InputStream inputStream, CompositeRouter router) throws IOException {
 		this.client = client;
 		this.router = router;
-		this.inputStream = client.getInputStream();
+		this.inputStream = inputStream;
 		this.outputStream = client.getOutputStream();
 		streams = new HashMap<>();
 	}
@@ -2,9 +2,8 @@ package net.winrob.proteus.api.request;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetAddress;
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.winrob.commons.saon.EventDispatcher;
 import net.winrob.proteus.api.context.ProteusHttpContext;
@@ -12,16 +11,23 @@ import net.winrob.proteus.api.request.ParameterMap;
 import net.winrob.proteus.api.request.ProteusHttpRequest;
 import net.winrob.proteus.api.request.RequestBody;
 import net.winrob.proteus.header.ProteusHttpHeaders;
+import net.winrob.proteus.http.ChunkedInputStream;
+import net.winrob.proteus.http.ConnectionReader;
+import net.winrob.proteus.http.KnownHeader;
+import net.winrob.proteus.http.ParameterDecoder;
+import net.winrob.proteus.http.ParameterList;
+import net.winrob.proteus.http.RequestHead;
 import net.winrob.proteus.routing.CompositeRouter;
 import net.winrob.proteus.routing.Hostname;
 import net.winrob.proteus.routing.HttpRoute;
 import net.winrob.proteus.routing.PathComprehension;
-import net.winrob.proteus.util.RequestUtils;
+import net.winrob.proteus.server.RouteCache;
 
 public class ProteusHttpRequestImpl implements ProteusHttpRequest {
 	
 	private InputStream inputStream;
 	
+	private InetAddress address;
 	private String remoteAddress;
 	
 	private String method;
@@ -29,10 +35,12 @@ public class ProteusHttpRequestImpl implements ProteusHttpRequest {
 	private String path;
 	private Hostname hostname;
 	
-	private ProteusHttpHeaders headers;
+	private RequestHead head;
 	
 	private RequestBody body;
+	private boolean bodyRead;
 	private ParameterMap<String> urlParameters;
+	private ParameterList queryParameters;
 	private ParameterMap<String> cookies; // TODO Flesh out cookies!
 	
 	private HttpRoute route;
@@ -49,53 +57,94 @@ public class ProteusHttpRequestImpl implements ProteusHttpRequest {
 	 * @param headers The {@link ProteusHttpHeaders} of this request.
 	 * @param router The {@link CompositeRouter} used by the endpoint to resolve the path request.
 	 */
-	public ProteusHttpRequestImpl(Socket client, String method, String httpVersion, String path, ProteusHttpHeaders headers, CompositeRouter router, EventDispatcher dispatcher) {
-		try {
-			this.inputStream = client.getInputStream();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		this.remoteAddress = client.getInetAddress().toString();
-		this.method = method;
-		this.httpVersion = httpVersion;
-		this.path = path;
-		this.hostname = new Hostname(headers.getHeader("Host").getFirst().getValue());
-		this.headers = headers;
-		route = router.getHttpRoute(hostname, resolveURI(path));
-		if (method.equals("POST")) {
-			body = RequestBodyImpl.createRequestBody(this, inputStream);
-		}
-		cookies = headers.hasHeader("Cookie") ? headers.getHeader("Cookie").getFirst().getParams() : null;
-		if (body != null) {
-			ParameterMap<String> post = body.getBodyParams();
-			for (String s : post.keySet()) {
-				System.out.println(s + ": " + post.getParameter(s));
-			}
-		}
+	public ProteusHttpRequestImpl(Socket client, String method, String httpVersion, String path, ProteusHttpHeaders headers, CompositeRouter router, EventDispatcher dispatcher) throws IOException {
+		this(client.getInputStream(), client.getInetAddress(), method, httpVersion, path, headers, router, dispatcher);
+	}
+	
+	/**
+	 * Constructs a new ProteusHttpRequest object which reads its body from the given stream.
+	 * 
+	 * @param inputStream The stream containing the body of this request, if any.
+	 * @param address The address of the client.
+	 * @param method The HTTP method specified by this request.
+	 * @param httpVersion The HTTP Version of this request (1.1 is supported).
+	 * @param path The path of this request.
+	 * @param headers The {@link ProteusHttpHeaders} of this request.
+	 * @param router The {@link CompositeRouter} used by the endpoint to resolve the path request.
+	 */
+	public ProteusHttpRequestImpl(InputStream inputStream, InetAddress address, String method, String httpVersion, String path, ProteusHttpHeaders headers, CompositeRouter router, EventDispatcher dispatcher) {
+		this(inputStream, address, new RequestHead(method, path, httpVersion, headers), RouteCache.forRouter(router), dispatcher);
+	}
+	
+	/**
+	 * Constructs a new ProteusHttpRequest object from a parsed request head, which reads its body from the given stream.
+	 * The hostname, query parameters, cookies and body are only parsed when they are first asked for.
+	 * 
+	 * @param inputStream The stream containing the body of this request, if any.
+	 * @param address The address of the client.
+	 * @param head The {@link RequestHead} of this request.
+	 * @param routes The {@link RouteCache} of the endpoint, used to resolve the path request.
+	 */
+	public ProteusHttpRequestImpl(InputStream inputStream, InetAddress address, RequestHead head, RouteCache routes, EventDispatcher dispatcher) {
+		this.inputStream = inputStream;
+		this.address = address;
+		this.method = head.getMethod();
+		this.httpVersion = head.getVersion();
+		this.path = head.getPath();
+		this.head = head;
+		int query = path.indexOf('?');
+		route = routes.getHttpRoute(head.getHeader(KnownHeader.HOST), query < 0 ? path : path.substring(0, query));
+		bodyRead = false;
 		this.dispatcher = dispatcher;
 	}
 	
-	// Decomposes the path and query string components of the URI.
-	private String resolveURI(String path) {
-		String[] requestSplit;
-		if(path.contains("?")) {
-			requestSplit = path.split("\\?", 2);
-		} else {
-			requestSplit = new String[2];
-			requestSplit[0] = path.toString();
-			requestSplit[1] = "";
+	/**
+	 * Reads past any of the body the handler did not read, so the next request on the connection starts at its request
+	 * line.
+	 * 
+	 * @throws IOException If the body cannot be read.
+	 */
+	public void discardBody() throws IOException {
+		if (body instanceof RequestBodyImpl) {
+			// a body read as a stream may not have been read to its end
+			((RequestBodyImpl) body).discard();
+			return;
 		}
-		Map<String, String> getP = new HashMap<String, String>();
-		if(requestSplit.length>1) {
-			getP = RequestUtils.resolveQueryString(requestSplit[1]);
+		// the body was never read, as a handler may not read it (or any body of a method other than POST)
+		bodyRead = true;
+		if (head.hasHeader(KnownHeader.TRANSFER_ENCODING)) {
+			if (!ChunkedInputStream.isChunked(head.getHeader(KnownHeader.TRANSFER_ENCODING))) {
+				// the end of the body is not known, so the connection cannot be kept open after it
+				throw new IOException("Unknown request body framing");
+			}
+			new ChunkedInputStream(ConnectionReader.of(inputStream)).discard();
+		} else if (head.hasHeader(KnownHeader.CONTENT_LENGTH)) {
+			long remaining;
+			try {
+				remaining = Long.parseLong(head.getHeader(KnownHeader.CONTENT_LENGTH));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid Content-Length");
+			}
+			while (remaining > 0) {
+				long skipped = inputStream.skip(remaining);
+				if (skipped <= 0) {
+					throw new IOException("Stream ended within request body");
+				}
+				remaining -= skipped;
+			}
 		}
-		urlParameters = new ParameterMap<>(getP);
-		return requestSplit[0];
 	}
 	
 	public HttpRoute getRoute() {
 		return route;
 	}
+	
+	/**
+	 * @return The {@link RequestHead} this request was created from.
+	 */
+	public RequestHead getHead() {
+		return head;
+	}
 
 	@Override
 	public String getMethod() {
@@ -109,31 +158,60 @@ public class ProteusHttpRequestImpl implements ProteusHttpRequest {
 	
 	@Override
 	public Hostname getHostname() {
+		if (hostname == null) {
+			hostname = new Hostname(head.getHeader(KnownHeader.HOST));
+		}
 		return hostname;
 	}
 
 	@Override
 	public ParameterMap<String> getUrlParameters() {
+		if (urlParameters == null) {
+			urlParameters = new ParameterMap<>(getQueryParameters());
+		}
 		return urlParameters;
 	}
+	
+	/**
+	 * @return The parameters of the query string in order, including every value of a repeated parameter.
+	 */
+	public ParameterList getQueryParameters() {
+		if (queryParameters == null) {
+			int query = path.indexOf('?');
+			queryParameters = query < 0 ? new ParameterList() : ParameterDecoder.decodeQuery(path.substring(query + 1));
+		}
+		return queryParameters;
+	}
 
 	@Override
 	public RequestBody getRequestBody() {
+		if (!bodyRead) {
+			bodyRead = true;
+			if (method.equals("POST")) {
+				body = RequestBodyImpl.createRequestBody(this, head, inputStream);
+			}
+		}
 		return body;
 	}
 
 	@Override
 	public ParameterMap<String> getCookies() {
+		if (cookies == null && head.hasHeader(KnownHeader.COOKIE)) {
+			cookies = new ParameterMap<>(ParameterDecoder.decodeCookies(head.getHeader(KnownHeader.COOKIE)));
+		}
 		return cookies;
 	}
 	
 	@Override
 	public ProteusHttpHeaders getHeaders() {
-		return headers;
+		return head.getHeaders();
 	}
 	
 	@Override
 	public String getRemoteAddress() {
+		if (remoteAddress == null) {
+			remoteAddress = address.toString();
+		}
 		return remoteAddress;
 	}
 	
@@ -20,6 +20,7 @@ import net.winrob.proteus.api.websocket.OpCode;
 import net.winrob.proteus.api.websocket.WebSocketFrame;
 import net.winrob.proteus.api.websocket.WebSocketState;
 import net.winrob.proteus.header.ProteusHeaderBuilder;
+import net.winrob.proteus.http.ConnectionReader;
 import net.winrob.proteus.util.SecurityUtils;
 import net.winrob.proteus.util.StreamUtils;
 
@@ -48,8 +49,21 @@ public class ProteusWebSocketConnectionImpl implements ProteusWebSocketConnectio
 	 * @throws IOException If the connection is not able to get the input or output streams form the client connection.
 	 */
 	public ProteusWebSocketConnectionImpl(Socket client, ProteusWebSocketRequest request) throws IOException {
+		this(client, new ConnectionReader(client.getInputStream()), request);
+	}
+	
+	/**
+	 * Creates a new ProteusWebSocketConnection object which reads frames through the stream the upgrade request was read
+	 * from, so any frames already buffered after the request are not lost.
+	 * 
+	 * @param client The client socket (for the output stream)
+	 * @param inputStream The stream the upgrade request was read from.
+	 * @param request The {@link ProtusWebSocketRequest} generated by the initial request to this endpoint.
+	 * @throws IOException If the connection is not able to get the output stream form the client connection.
+	 */
+	public ProteusWebSocketConnectionImpl(Socket client, InputStream inputStream, ProteusWebSocketRequest request) throws IOException {
 		this.client = client;
-		this.inputStream = client.getInputStream();
+		this.inputStream = inputStream;
 		this.outputStream = client.getOutputStream();
 		this.request = request;
 		replyQueue = new LinkedBlockingDeque<>();
@@ -1,19 +1,19 @@
 package net.winrob.proteus.api.request;
 
 import java.net.Socket;
-import java.util.HashMap;
-import java.util.Map;
 
 import net.winrob.proteus.api.context.ProteusWebSocketContext;
 import net.winrob.proteus.api.request.ParameterMap;
 import net.winrob.proteus.api.request.ProteusWebSocketRequest;
 import net.winrob.proteus.api.request.RequestBody;
 import net.winrob.proteus.header.ProteusHttpHeaders;
+import net.winrob.proteus.http.ParameterDecoder;
+import net.winrob.proteus.http.ParameterList;
 import net.winrob.proteus.routing.CompositeRouter;
 import net.winrob.proteus.routing.Hostname;
 import net.winrob.proteus.routing.PathComprehension;
 import net.winrob.proteus.routing.WebSocketRoute;
-import net.winrob.proteus.util.RequestUtils;
+import net.winrob.proteus.server.RouteCache;
 
 public class ProteusWebSocketRequestImpl implements ProteusWebSocketRequest {
 	
@@ -36,28 +36,34 @@ public class ProteusWebSocketRequestImpl implements ProteusWebSocketRequest {
 	 * @param router The {@link CompositeRouter} used by the endpoint to resolve the path request.
 	 */
 	public ProteusWebSocketRequestImpl(Socket client, String path, ProteusHttpHeaders headers, CompositeRouter router) {
-		this.hostname = new Hostname(headers.getHeader("Host").getFirst().getValue());
+		this(client, path, headers, RouteCache.forRouter(router));
+	}
+	
+	/**
+	 * Constructs a new ProteusWebSocketRequest object.
+	 * 
+	 * @param client The client socket connection (for input and output streams).
+	 * @param path The path of this request.
+	 * @param headers The {@link ProteusHttpHeaders} of this request.
+	 * @param routes The {@link RouteCache} of the endpoint, used to resolve the path request.
+	 */
+	public ProteusWebSocketRequestImpl(Socket client, String path, ProteusHttpHeaders headers, RouteCache routes) {
+		String host = headers.getHeader("Host").getFirst().getValue();
+		this.hostname = new Hostname(host);
 		this.headers = headers;
-		route = router.getWebSocketRoute(hostname, resolveURI(path));
-		cookies = headers.hasHeader("Cookie") ? headers.getHeader("Cookie").getFirst().getParams() : null;
+		route = routes.getWebSocketRoute(host, resolveURI(path));
+		cookies = headers.hasHeader("Cookie") ? new ParameterMap<>(ParameterDecoder.decodeCookies(headers.getHeader("Cookie").getFirst().getValue())) : null;
 	}
 	
 	// Decomposes the path and query string components of the URI.
 	private String resolveURI(String path) {
-		String[] requestSplit;
-		if(path.contains("?")) {
-			requestSplit = path.split("\\?", 2);
-		} else {
-			requestSplit = new String[2];
-			requestSplit[0] = path.toString();
-			requestSplit[1] = "";
-		}
-		Map<String, String> getP = new HashMap<String, String>();
-		if(requestSplit.length>1) {
-			getP = RequestUtils.resolveQueryString(requestSplit[1]);
+		int query = path.indexOf('?');
+		if (query < 0) {
+			urlParameters = new ParameterMap<>(new ParameterList());
+			return path;
 		}
-		urlParameters = new ParameterMap<>(getP);
-		return requestSplit[0];
+		urlParameters = new ParameterMap<>(ParameterDecoder.decodeQuery(path.substring(query + 1)));
+		return path.substring(0, query);
 	}
 	
 	public WebSocketRoute getRoute() {
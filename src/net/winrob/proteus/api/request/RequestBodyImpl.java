@@ -4,7 +4,6 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,17 +18,29 @@ import net.winrob.proteus.header.HeaderValue;
 import net.winrob.proteus.header.ProteusHeaderBuilder;
 import net.winrob.proteus.header.ProteusHttpHeaders;
 import net.winrob.proteus.header.QualityValue;
-import net.winrob.proteus.util.StreamUtils;
+import net.winrob.proteus.http.BodyInputStream;
+import net.winrob.proteus.http.ChunkedInputStream;
+import net.winrob.proteus.http.ConnectionReader;
+import net.winrob.proteus.http.KnownHeader;
+import net.winrob.proteus.http.ParameterDecoder;
+import net.winrob.proteus.http.ParameterList;
+import net.winrob.proteus.http.RequestHead;
 
 public class RequestBodyImpl implements RequestBody {
 	
 	private ParameterMap<String> bodyData;
 	private ParameterMap<MultipartFileStream> fileData;
+	private ParameterList formParameters;
 	
 	private String contentType;
 	private String rawText;
 	private MultipartFileStream rawFile;
 	
+	private BodyInputStream lengthBody;
+	private ChunkedInputStream chunkedBody;
+	private InputStream decodedBody;
+	private boolean unframed;
+	
 	private boolean resume;
 
 	private RequestBodyImpl() {
@@ -37,6 +48,7 @@ public class RequestBodyImpl implements RequestBody {
 		fileData = new ParameterMap<>();
 		resume = false;
 		contentType = null;
+		unframed = false;
 	}
 	
 	@Override
@@ -49,6 +61,14 @@ public class RequestBodyImpl implements RequestBody {
 		return fileData;
 	}
 	
+	/**
+	 * @return The parameters of a form (application/x-www-form-urlencoded) body in order, including every value of a
+	 * repeated parameter, or null if the body is not a form.
+	 */
+	public ParameterList getFormParameters() {
+		return formParameters;
+	}
+	
 	/**
 	 * Creates a new RequestBody object, processing body data.
 	 * 
@@ -57,63 +77,69 @@ public class RequestBodyImpl implements RequestBody {
 	 * @return The RequestBody object that has been created, which may be empty.
 	 */
 	public static RequestBody createRequestBody(ProteusHttpRequest request, InputStream inputStream) {
+		return createRequestBody(request, new RequestHead(request.getMethod(), request.getPath(), request.getHttpVersion(), request.getHeaders()), inputStream);
+	}
+	
+	/**
+	 * Creates a new RequestBody object, processing body data.
+	 * 
+	 * @param request The {@link ProteusHttpRequest} to process.
+	 * @param head The {@link RequestHead} of the request, used to look up its {@link KnownHeader}s.
+	 * @param inputStream The {@link InputStream} containing the body of the request, if any.
+	 * @return The RequestBody object that has been created, which may be empty.
+	 */
+	public static RequestBody createRequestBody(ProteusHttpRequest request, RequestHead head, InputStream inputStream) {
+		ConnectionReader reader = ConnectionReader.of(inputStream);
 		RequestBodyImpl body = new RequestBodyImpl();
 		ProteusHttpHeaders headers = request.getHeaders();
-		if (headers.hasHeader("Content-Type")) {
-			if (headers.hasHeader("Content-Length")) {
+		// the body is framed whatever its type, so the next request on the connection starts after it
+		if (head.hasHeader(KnownHeader.TRANSFER_ENCODING)) {
+			if (!ChunkedInputStream.isChunked(head.getHeader(KnownHeader.TRANSFER_ENCODING))) {
+				// the end of the body is not known, so the connection cannot be kept open after it
+				body.unframed = true;
+				return body;
+			}
+			body.chunkedBody = new ChunkedInputStream(reader);
+			if (head.hasHeader(KnownHeader.CONTENT_TYPE)) {
+				HeaderValue contentType = headers.getHeader("Content-Type").getLast();
+				body.contentType = contentType.getValue();
+				try {
+					// transfer codings are removed before content codings
+					InputStream decoded = decode(body.chunkedBody, decodingOrder(headers, "Transfer-Encoding"));
+					body.decodedBody = decode(decoded, decodingOrder(headers, "Content-Encoding"));
+					body.rawFile = new MultipartFileStreamImpl(body.decodedBody, null, null, body.contentType, -1);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		} else if (head.hasHeader(KnownHeader.CONTENT_LENGTH)) {
+			// the parser has checked the length is a number of at most 18 digits
+			long contentLength = Long.parseLong(head.getHeader(KnownHeader.CONTENT_LENGTH));
+			body.lengthBody = new BodyInputStream(reader, contentLength);
+			if (head.hasHeader(KnownHeader.CONTENT_TYPE)) {
 				HeaderValue contentType = headers.getHeader("Content-Type").getLast();
-				int contentLength = Integer.parseInt(headers.getHeader("Content-Length").getLast().getValue());
 				body.contentType = contentType.getValue();
 				switch(contentType.getValue()) {
 				case "application/x-www-form-urlencoded":
-					body.contentFormUrlEncoded(contentLength, inputStream);
+					body.contentFormUrlEncoded(body.lengthBody);
 					break;
 				case "multipart/form-data":
-					body.contentFormData(inputStream, contentType, null);
+					// the parts are read no further than the body, anything after the last boundary is discarded with it
+					body.contentFormData(ConnectionReader.of(body.lengthBody), contentType, null);
 					break;
 				case "application/json":
 				case "text/plain":
 				case "text/html":
 				case "text/xml":
-					body.contentRaw(headers, contentLength, inputStream);
+					body.contentRaw(headers);
 					break;
 				default:
-					body.fileRaw(headers, contentLength, inputStream);
+					body.fileRaw(headers, contentLength);
 				}
-			} else if (headers.hasHeader("Transfer-Encoding")) {
-				HeaderValue contentType = headers.getHeader("Content-Type").getLast();
-				body.contentType = contentType.getValue();
-				try {
-					byte[] file = body.readFileAsChunks(headers, inputStream);
-					List<CompressionEncoding> decompressOrder = new LinkedList<>();
-					if (headers.hasHeader("Content-Encoding")) {
-						List<HeaderValue> contentEncoding = headers.getHeader("Content-Encoding").getValues();
-						for (int i = contentEncoding.size() - 1; i >= 0; i--) {
-							HeaderValue hv = contentEncoding.get(i);
-							List<QualityValue> qv = hv.getValues();
-							for (int j = qv.size()-1; j >= 0; j--) {
-								CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
-								if (ce != CompressionEncoding.NONE) {
-									if (!decompressOrder.contains(ce)) {
-										decompressOrder.add(ce);
-									} else {
-										// TODO error
-									}
-								}
-							}
-						}
-					}
-					for (CompressionEncoding ce : decompressOrder) {
-						file = Compressor.decompress(file, ce);
-					}
-					body.rawFile = new MultipartFileStreamImpl(new ByteArrayInputStream(file), null, null, body.contentType, file.length);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			} else {
-				// TODO Error on missing length
-				return null;
 			}
+		} else if (head.hasHeader(KnownHeader.CONTENT_TYPE)) {
+			// TODO Error on missing length
+			return null;
 		}
 		return body;
 	}
@@ -133,31 +159,75 @@ public class RequestBodyImpl implements RequestBody {
 		return rawFile;
 	}
 	
-	private boolean fileRaw(ProteusHttpHeaders headers, int length, InputStream in) {
-		try {
-			byte[] data = in.readNBytes(length);
-			List<CompressionEncoding> decompressOrder = new LinkedList<>();
-			if (headers.hasHeader("Content-Encoding")) {
-				List<HeaderValue> contentEncoding = headers.getHeader("Content-Encoding").getValues();
-				for (int i = contentEncoding.size() - 1; i >= 0; i--) {
-					HeaderValue hv = contentEncoding.get(i);
-					List<QualityValue> qv = hv.getValues();
-					for (int j = qv.size()-1; i >= 0; i--) {
-						CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
-						if (ce != CompressionEncoding.NONE) {
-							if (!decompressOrder.contains(ce)) {
-								decompressOrder.add(ce);
-							} else {
-								// TODO error
-							}
+	/**
+	 * Reads past the part of the body the endpoint did not read, so the next request on the connection can be read,
+	 * and gives back the decoders of a compressed body.
+	 * 
+	 * @throws IOException If the connection ends within the body, or the end of the body is not known.
+	 */
+	public void discard() throws IOException {
+		if (decodedBody != null) {
+			decodedBody.close();
+		}
+		if (unframed) {
+			throw new IOException("Unknown request body framing");
+		}
+		if (lengthBody != null) {
+			lengthBody.discard();
+		}
+		if (chunkedBody != null) {
+			chunkedBody.discard();
+		}
+	}
+	
+	// The codings named by a Content-Encoding or Transfer-Encoding header, in the order they are removed (the reverse
+	// of the order they were applied). Transfer codings that are not compression, such as chunked, are left out.
+	private static List<CompressionEncoding> decodingOrder(ProteusHttpHeaders headers, String name) {
+		List<CompressionEncoding> decodingOrder = new LinkedList<>();
+		if (headers.hasHeader(name)) {
+			List<HeaderValue> codings = headers.getHeader(name).getValues();
+			for (int i = codings.size() - 1; i >= 0; i--) {
+				List<QualityValue> qv = codings.get(i).getValues();
+				for (int j = qv.size() - 1; j >= 0; j--) {
+					CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
+					if (ce != CompressionEncoding.NONE) {
+						if (!decodingOrder.contains(ce)) {
+							decodingOrder.add(ce);
+						} else {
+							// TODO error
 						}
 					}
 				}
 			}
-			for (CompressionEncoding ce : decompressOrder) {
-				data = Compressor.decompress(data, ce);
+		}
+		return decodingOrder;
+	}
+	
+	private static boolean isChunked(ProteusHttpHeaders headers) {
+		for (HeaderValue hv : headers.getHeader("Transfer-Encoding").getValues()) {
+			for (QualityValue qv : hv.getValues()) {
+				if (qv.getValue().equalsIgnoreCase("chunked")) {
+					return true;
+				}
 			}
-			rawFile = new MultipartFileStreamImpl(new ByteArrayInputStream(data), null, null, contentType, data.length);
+		}
+		return false;
+	}
+	
+	// Wraps the body in a decompressing stream for each coding, so it is decoded as it is read.
+	private static InputStream decode(InputStream in, List<CompressionEncoding> decodingOrder) throws IOException {
+		for (CompressionEncoding ce : decodingOrder) {
+			in = Compressor.decompressingStream(in, ce);
+		}
+		return in;
+	}
+	
+	private boolean fileRaw(ProteusHttpHeaders headers, long length) {
+		try {
+			List<CompressionEncoding> decodingOrder = decodingOrder(headers, "Content-Encoding");
+			decodedBody = decode(lengthBody, decodingOrder);
+			// the decoded length is only known once the body is read
+			rawFile = new MultipartFileStreamImpl(decodedBody, null, null, contentType, decodingOrder.isEmpty() && length <= Integer.MAX_VALUE ? (int) length : -1);
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -165,30 +235,11 @@ public class RequestBodyImpl implements RequestBody {
 		return false;
 	}
 	
-	private boolean contentRaw(ProteusHttpHeaders headers, int length, InputStream in) {
+	private boolean contentRaw(ProteusHttpHeaders headers) {
 		try {
-			byte[] data = in.readNBytes(length);
-			List<CompressionEncoding> decompressOrder = new LinkedList<>();
-			if (headers.hasHeader("Content-Encoding")) {
-				List<HeaderValue> contentEncoding = headers.getHeader("Content-Encoding").getValues();
-				for (int i = contentEncoding.size() - 1; i >= 0; i--) {
-					HeaderValue hv = contentEncoding.get(i);
-					List<QualityValue> qv = hv.getValues();
-					for (int j = qv.size()-1; i >= 0; i--) {
-						CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
-						if (ce != CompressionEncoding.NONE) {
-							if (!decompressOrder.contains(ce)) {
-								decompressOrder.add(ce);
-							} else {
-								// TODO error
-							}
-						}
-					}
-				}
-			}
-			for (CompressionEncoding ce : decompressOrder) {
-				data = Compressor.decompress(data, ce);
-			}
+			decodedBody = decode(lengthBody, decodingOrder(headers, "Content-Encoding"));
+			byte[] data = decodedBody.readAllBytes();
+			discard();
 			rawText = new String(data, StandardCharsets.UTF_8);
 			return true;
 		} catch (IOException e) {
@@ -197,17 +248,11 @@ public class RequestBodyImpl implements RequestBody {
 		return false;
 	}
 	
-	private boolean contentFormUrlEncoded(int length, InputStream in) {
+	private boolean contentFormUrlEncoded(InputStream in) {
 		try {
-			byte[] data = in.readNBytes(length);
-			String kvs = new String(data, StandardCharsets.UTF_8);
-			for (String kvt : kvs.split("&")) {
-				String[] keyValue = kvt.split("=");
-				if (keyValue.length != 2) {
-					continue;
-				}
-				bodyData.putParameter(keyValue[0], URLDecoder.decode(keyValue[1], StandardCharsets.UTF_8));
-			}
+			byte[] data = in.readAllBytes();
+			formParameters = ParameterDecoder.decodeForm(data, data.length);
+			bodyData = new ParameterMap<>(formParameters);
 			return true;
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -215,7 +260,7 @@ public class RequestBodyImpl implements RequestBody {
 		return false;
 	}
 	
-	private boolean contentFormData(InputStream in, HeaderValue contentType, String retainName) {
+	private boolean contentFormData(ConnectionReader in, HeaderValue contentType, String retainName) {
 		try {
 			if (contentType.getParams().hasParameter("boundary")) {
 				String boundary = contentType.getParams().getParameter("boundary");
@@ -223,7 +268,7 @@ public class RequestBodyImpl implements RequestBody {
 				String boundaryEnd = boundaryStart + "--";
 				boolean flag = false;
 				while (!flag) {
-					String boundarySeek = StreamUtils.readLine(in, true);
+					String boundarySeek = in.readLine(true);
 					if (boundarySeek.equals(boundaryStart)) {
 						flag = true;
 						resume = true;
@@ -236,7 +281,7 @@ public class RequestBodyImpl implements RequestBody {
 					resume = false; // TODO: Support multiple files
 					StringBuilder contentBuilder = new StringBuilder();
 			        String line;
-			        while (!(line = StreamUtils.readLine(in, true)).isBlank()) {
+			        while (!(line = in.readLine(true)).isBlank()) {
 			        	contentBuilder.append(line + "\r\n");
 			        }
 			        
@@ -303,7 +348,7 @@ public class RequestBodyImpl implements RequestBody {
 		return name;
 	}
 	
-	private boolean handleFile(ProteusHttpHeaders headers, String name, String filename, InputStream inputStream, String boundaryStart, String boundaryEnd) throws IOException {
+	private boolean handleFile(ProteusHttpHeaders headers, String name, String filename, ConnectionReader inputStream, String boundaryStart, String boundaryEnd) throws IOException {
 		if (name != null) {
 			String contentType = headers.getHeader("Content-Type").getLast().getValue();
 			boolean useCl = false;
@@ -318,40 +363,22 @@ public class RequestBodyImpl implements RequestBody {
 			} else {
 				bytes = readFileToBoundary(useCl, contentLength, inputStream, boundaryStart, boundaryEnd);
 			}
-			List<CompressionEncoding> decompressOrder = new LinkedList<>();
-			if (headers.hasHeader("Content-Encoding")) {
-				List<HeaderValue> contentEncoding = headers.getHeader("Content-Encoding").getValues();
-				for (int i = contentEncoding.size() - 1; i >= 0; i--) {
-					HeaderValue hv = contentEncoding.get(i);
-					List<QualityValue> qv = hv.getValues();
-					for (int j = qv.size()-1; i >= 0; i--) {
-						CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
-						if (ce != CompressionEncoding.NONE) {
-							if (!decompressOrder.contains(ce)) {
-								decompressOrder.add(ce);
-							} else {
-								// TODO error
-							}
-						}
-					}
-				}
-			}
-			for (CompressionEncoding ce : decompressOrder) {
-				bytes = Compressor.decompress(bytes, ce);
+			try (InputStream decoded = decode(new ByteArrayInputStream(bytes), decodingOrder(headers, "Content-Encoding"))) {
+				bytes = decoded.readAllBytes();
 			}
 			fileData.putParameter(name, new MultipartFileStreamImpl(new ByteArrayInputStream(bytes), name, filename, contentType, bytes.length));
 		}
 		return false;
 	}
 	
-	private String readParamToBoundary(InputStream in, String boundaryStart, String boundaryEnd) throws IOException {
+	private String readParamToBoundary(ConnectionReader in, String boundaryStart, String boundaryEnd) throws IOException {
 		StringBuilder reply = new StringBuilder();
-		String line = StreamUtils.readLine(in, true);
+		String line = in.readLine(true);
 		boolean lineAhead = false;
 		while (lineAhead || (!line.equals(boundaryStart) && !line.equals(boundaryEnd))) {
 			lineAhead = false;
 			reply.append(line);
-			line = StreamUtils.readLine(in, true);
+			line = in.readLine(true);
 			if (!line.equals(boundaryStart) && !line.equals(boundaryEnd)) {
 				reply.append("\r\n");
 				lineAhead = true;
@@ -363,60 +390,27 @@ public class RequestBodyImpl implements RequestBody {
 		return reply.toString();
 	}
 	
-	private byte[] readFileAsChunks(ProteusHttpHeaders headers, InputStream in) throws NumberFormatException, IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		List<CompressionEncoding> decompressOrder = new LinkedList<>();
-		boolean chunked = false;
-		List<HeaderValue> transferEncoding = headers.getHeader("Transfer-Encoding").getValues();
-		for (int i = transferEncoding.size() - 1; i >= 0; i--) {
-			HeaderValue hv = transferEncoding.get(i);
-			List<QualityValue> qv = hv.getValues();
-			for (int j = qv.size()-1; i >= 0; i--) {
-				CompressionEncoding ce = CompressionEncoding.forName(qv.get(j).getValue());
-				if (ce != CompressionEncoding.NONE) {
-					if (!decompressOrder.contains(ce)) {
-						if (qv.get(j).getValue().equals("chunked")) {
-							chunked = true;
-						} else {
-							decompressOrder.add(ce);
-						}
-					} else {
-						// TODO error
-					}
-				}
-			}
-		}
-		
-		if (chunked) {
-			boolean read = true;
-			while (read) {
-				int lineLength = Integer.parseInt(StreamUtils.readLine(in, true));
-				baos.write(in.readNBytes(lineLength));
-				StreamUtils.consumeLine(in);
-				if (lineLength == 0) {
-					read = false;
-				}
+	private byte[] readFileAsChunks(ProteusHttpHeaders headers, ConnectionReader in) throws IOException {
+		if (isChunked(headers)) {
+			try (InputStream decoded = decode(new ChunkedInputStream(in), decodingOrder(headers, "Transfer-Encoding"))) {
+				return decoded.readAllBytes();
 			}
 		} else {
 			// TODO error
 		}
-		byte[] bytes = baos.toByteArray();
-		for (CompressionEncoding ce : decompressOrder) {
-			bytes = Compressor.decompress(bytes, ce);
-		}
-		return bytes;
+		return new byte[0];
 	}
 	
-	private byte[] readFileToBoundary(boolean useContentLength, int length, InputStream in, String boundaryStart, String boundaryEnd) throws IOException {
+	private byte[] readFileToBoundary(boolean useContentLength, int length, ConnectionReader in, String boundaryStart, String boundaryEnd) throws IOException {
 		if (!useContentLength) {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			byte[] byteLine = StreamUtils.readRawLine(in, true);
+			byte[] byteLine = in.readRawLine(true);
 			String line = new String(byteLine, StandardCharsets.UTF_8);
 			boolean lineAhead = false;
 			while (lineAhead || (!line.equals(boundaryStart) && !line.equals(boundaryEnd))) {
 				lineAhead = false;
 				baos.write(byteLine);
-				byteLine = StreamUtils.readRawLine(in, true);
+				byteLine = in.readRawLine(true);
 				line = new String(byteLine, StandardCharsets.UTF_8);
 				if (!line.equals(boundaryStart) && !line.equals(boundaryEnd)) {
 					baos.write('\r');
@@ -430,9 +424,9 @@ public class RequestBodyImpl implements RequestBody {
 			return baos.toByteArray();
 		} else {
 			byte[] bytes = in.readNBytes(length);
-			String line = StreamUtils.readLine(in, true);
+			String line = in.readLine(true);
 			while (!line.equals(boundaryStart) && !line.equals(boundaryEnd)) {
-				line = StreamUtils.readLine(in, true);
+				line = in.readLine(true);
 			}
 			if (line.equals(boundaryStart)) {
 				resume = true;
@@ -1,44 +1,99 @@
 package net.winrob.proteus.api.response;
 
 import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 import net.winrob.proteus.ProteusServer;
 import net.winrob.proteus.api.event.http.ClientKeepAliveEvent;
 import net.winrob.proteus.api.event.http.SendResponseHeadersEvent;
+import net.winrob.proteus.compression.CompressionCache;
 import net.winrob.proteus.compression.CompressionEncoding;
+import net.winrob.proteus.compression.CompressionMetrics;
+import net.winrob.proteus.compression.CompressionPolicy;
 import net.winrob.proteus.compression.Compressor;
+import net.winrob.proteus.compression.DictionaryStore;
+import net.winrob.proteus.compression.SharedDictionary;
 import net.winrob.proteus.error.ErrorResponse;
 import net.winrob.proteus.header.ProteusHeaderBuilder;
-import net.winrob.proteus.util.FormatUtils;
+import net.winrob.proteus.http.AcceptEncoding;
+import net.winrob.proteus.http.ByteRanges;
+import net.winrob.proteus.http.ChunkedOutputStream;
+import net.winrob.proteus.http.ClientConnection;
+import net.winrob.proteus.http.EntityTag;
+import net.winrob.proteus.http.HttpDate;
+import net.winrob.proteus.http.KnownHeader;
+import net.winrob.proteus.http.RequestHead;
+import net.winrob.proteus.http.ResponseHead;
+import net.winrob.proteus.server.ETagMode;
 
 public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 	
+	// The largest body sent with a Content-Length, and the size of the chunks larger bodies are streamed in.
+	private static final int BUFFER_SIZE = 65536;
+	
+	private static final CompressionPolicy DEFAULT_POLICY = new CompressionPolicy();
+	
 	private OutputStream outputStream;
 	private CompressionEncoding encoding;
 	
 	private ProteusHeaderBuilder headerBuilder;
 	
 	private String mimeString;
+	private String contentType = null;
 	private Long modified = null;
+	private String etag = null;
+	private ETagMode etagMode = ETagMode.NONE;
+	private CompressionCache compressionCache = null;
+	private CompressionPolicy compressionPolicy = DEFAULT_POLICY;
+	private CompressionMetrics compressionMetrics = null;
+	private boolean precompressedFiles = false;
+	private DictionaryStore dictionaryStore = null;
+	private String dictionaryMatch = null;
+	private String dictionaryId = null;
 	
 	private ProteusServer server;
 	
 	// TODO cookies, special headers
-	// TODO range request (which will be in an implementer...) but file support may also be native for pass-through.
 	private boolean complete = false;
 	
 	private ClientKeepAliveEvent keepAlive;
+	private ClientConnection connection;
+	private RequestHead request;
+	
+	/**
+	 * Creates a new ProteusHttpResponse with the given encoding and client connection.
+	 * 
+	 * @param connection The {@link ClientConnection} the response is written to.
+	 * @param keepAlive The event dispatched once the response is written to keep the connection open, may be null.
+	 * @param encoding The {@link CompressionEncoding} to be used when writing the response.
+	 */
+	public ProteusHttpResponseImpl(ProteusServer server, ClientConnection connection, ClientKeepAliveEvent keepAlive, CompressionEncoding encoding) {
+		this(server, connection, keepAlive, encoding, null);
+	}
 	
 	/**
-	 * Creates a new ProteusHttpResponse with the given encoding and output stream (from client socket).
+	 * Creates a new ProteusHttpResponse to a request, which is answered without a body if it is a HEAD request or its
+	 * conditions (If-None-Match, If-Modified-Since) show the client already has the response.
 	 * 
-	 * @param outputStream The output stream to be used when writing the response.
+	 * @param connection The {@link ClientConnection} the response is written to.
+	 * @param keepAlive The event dispatched once the response is written to keep the connection open, may be null.
 	 * @param encoding The {@link CompressionEncoding} to be used when writing the response.
+	 * @param request The {@link RequestHead} of the request being answered, may be null.
 	 */
-	public ProteusHttpResponseImpl(ProteusServer server, ClientKeepAliveEvent keepAlive, OutputStream outputStream, CompressionEncoding encoding) {
-		this.outputStream = outputStream;
+	public ProteusHttpResponseImpl(ProteusServer server, ClientConnection connection, ClientKeepAliveEvent keepAlive, CompressionEncoding encoding, RequestHead request) {
+		this.connection = connection;
+		this.request = request;
+		this.outputStream = connection.getOutputStream();
 		this.encoding = encoding;
 		this.mimeString = "text/html";
 		headerBuilder = ProteusHeaderBuilder.newBuilder();
@@ -76,6 +131,76 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		sendResponse(responseCode, response, false);
 	}
 	
+	/**
+	 * Sends a file as the response. The file is sent with its length, uncompressed if its type is already compressed,
+	 * and without being copied through the heap where the connection allows. Its modification time is used as the
+	 * Last-Modified time (and entity tag) unless they were set.
+	 * 
+	 * @param file The path of the file.
+	 */
+	public void sendFile(Path file) {
+		sendFile(ResponseCode.OK, file);
+	}
+	
+	/**
+	 * Sends a file as the response. The file is sent with its length, uncompressed if its type is already compressed,
+	 * and without being copied through the heap where the connection allows. Its modification time is used as the
+	 * Last-Modified time (and entity tag) unless they were set. If precompressed files are enabled, a sidecar compressed
+	 * ahead of time in the client's coding (the file with .br or .gz appended) is sent in its place.
+	 * 
+	 * @param responseCode The {@link ResponseCode} of the response.
+	 * @param file The path of the file.
+	 */
+	public void sendFile(ResponseCode responseCode, Path file) {
+		if (complete) {
+			return;
+		}
+		FileInputStream in;
+		try {
+			long lastModified = Files.getLastModifiedTime(file).toMillis();
+			if (modified == null) {
+				modified = lastModified;
+			}
+			if (etag == null && etagMode != ETagMode.NONE) {
+				etag = EntityTag.of(Long.toHexString(Files.size(file)) + "-" + Long.toHexString(lastModified), etagMode == ETagMode.WEAK);
+			}
+			Path sidecar = findSidecar(file, lastModified);
+			if (sidecar != null) {
+				// the sidecar is sent as it is, labelled with the coding it was compressed in
+				sendResponse(responseCode, new FileInputStream(sidecar.toFile()), true);
+				return;
+			}
+			in = new FileInputStream(file.toFile());
+		} catch (IOException e) {
+			error(ResponseCode.NOT_FOUND);
+			return;
+		}
+		sendResponse(responseCode, in);
+	}
+	
+	// Ranges are served from the file itself, they would otherwise be ranges of the sidecar's compressed bytes.
+	private Path findSidecar(Path file, long lastModified) throws IOException {
+		if (!precompressedFiles || (request != null && request.hasHeader(KnownHeader.RANGE))) {
+			return null;
+		}
+		String extension;
+		switch (encoding) {
+			case BR:
+				extension = ".br";
+				break;
+			case GZIP:
+				extension = ".gz";
+				break;
+			default:
+				return null;
+		}
+		Path sidecar = file.resolveSibling(file.getFileName() + extension);
+		if (Files.isRegularFile(sidecar) && Files.getLastModifiedTime(sidecar).toMillis() >= lastModified) {
+			return sidecar;
+		}
+		return null;
+	}
+	
 	@Override
 	public void sendResponse(ResponseCode responseCode, InputStream response, boolean ignoreCompressionDirective) {
 		if (!complete) {
@@ -83,36 +208,164 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 			headerBuilder.putHeader("Server", "Proteus");
 			if (keepAlive != null) {
 				headerBuilder.putHeader("Connection", "Keep-Alive");
-				headerBuilder.putHeader("Keep-Alive", "timeout=30, max=100");
+				headerBuilder.putHeader("Keep-Alive", "timeout=" + (connection.getKeepAliveTimeout() / 1000) + ", max=" + connection.getRemainingRequests());
+			} else {
+				headerBuilder.putHeader("Connection", "close");
 			}
 			headerBuilder.putHeader("Content-Type", mimeString);
-			headerBuilder.putHeader("Last-Modified", FormatUtils.getLastModifiedAsHTTPString(modified != null ? modified : System.currentTimeMillis()));
+			if (modified != null) {
+				headerBuilder.putHeader("Last-Modified", HttpDate.format(modified));
+			}
 			new SendResponseHeadersImpl(headerBuilder, responseCode, ignoreCompressionDirective ? CompressionEncoding.NONE : encoding, response).dispatch(server.getEventDispatcher());
 		}
 	}
 	
-	private void sendChunkedResponseHeaders(ResponseCode responseCode, CompressionEncoding ce) throws IOException {
-		outputStream.write(("HTTP/1.1 " + responseCode.getCode() + " " + responseCode.getName() + "\r\n").getBytes());
+	// Builds the head of a response in one buffer: the status line, the builder's headers and the current date.
+	private ResponseHead responseHead(ResponseCode responseCode, CompressionEncoding ce) {
+		ResponseHead head = new ResponseHead(responseCode);
 		if (ce != CompressionEncoding.NONE) {
-			headerBuilder.putHeader("Content-Encoding", ce.getName());
+			head.header("Content-Encoding", ce.getName());
 		}
-		outputStream.write(("Transfer-Encoding: " + (ce != CompressionEncoding.NONE ? ce.getName() + ", " : "") + "chunked\r\n").getBytes());
-        for (String header : headerBuilder.toList()) {
-        	outputStream.write((header + "\r\n").getBytes());
-        }
-        outputStream.write("\r\n".getBytes());
+		for (String header : headerBuilder.toList()) {
+			// a content type set while writing replaces the builder's
+			if (contentType != null && header.regionMatches(true, 0, "Content-Type:", 0, 13)) {
+				continue;
+			}
+			head.line(header);
+		}
+		if (contentType != null) {
+			head.header("Content-Type", contentType);
+		}
+		return head.header("Date", HttpDate.now());
 	}
 	
-	private void sendResponseHeaders(ResponseCode responseCode, CompressionEncoding ce, int length) throws IOException {
-		outputStream.write(("HTTP/1.1 " + responseCode.getCode() + " " + responseCode.getName() + "\r\n").getBytes());
-		if (ce != CompressionEncoding.NONE) {
-			headerBuilder.putHeader("Content-Encoding", encoding.getName());
+	private void sendResponseHeaders(ResponseCode responseCode, CompressionEncoding ce, long length) throws IOException {
+		ResponseHead head = responseHead(responseCode, ce).header("Content-Length", length).end();
+		outputStream.write(head.getBuffer(), 0, head.getLength());
+	}
+	
+	// Sends the head and the body of a response together, with as few writes as the connection allows.
+	private void sendResponse(ResponseCode responseCode, CompressionEncoding ce, byte[] body, int offset, int length) throws IOException {
+		ResponseHead head = responseHead(responseCode, ce).header("Content-Length", length).end();
+		connection.writeResponse(head.getBuffer(), head.getLength(), body, offset, length);
+	}
+	
+	// The headers of a HEAD response, the length is only sent when known without reading or compressing the body.
+	private void sendHeadResponseHeaders(ResponseCode responseCode, CompressionEncoding ce, long length) throws IOException {
+		ResponseHead head = responseHead(responseCode, ce);
+		if (ce == CompressionEncoding.NONE && length >= 0) {
+			head.header("Content-Length", length);
+		}
+		head.end();
+		outputStream.write(head.getBuffer(), 0, head.getLength());
+	}
+	
+	private void sendNotModifiedHeaders() throws IOException {
+		ResponseHead head = responseHead(ResponseCode.NOT_MODIFIED, CompressionEncoding.NONE).end();
+		outputStream.write(head.getBuffer(), 0, head.getLength());
+	}
+	
+	private boolean isHead() {
+		return request != null && request.getMethod().equals("HEAD");
+	}
+	
+	// Evaluates If-None-Match, or If-Modified-Since without it, for GET and HEAD requests.
+	private boolean isNotModified(String tag) {
+		if (request == null || !(request.getMethod().equals("GET") || isHead())) {
+			return false;
+		}
+		if (request.hasHeader(KnownHeader.IF_NONE_MATCH)) {
+			String list = request.getHeader(KnownHeader.IF_NONE_MATCH);
+			return tag != null ? EntityTag.matchesAny(list, tag) : list.trim().equals("*");
+		}
+		if (modified != null && request.hasHeader(KnownHeader.IF_MODIFIED_SINCE)) {
+			long since = HttpDate.parse(request.getHeader(KnownHeader.IF_MODIFIED_SINCE));
+			return since >= 0 && modified / 1000 <= since / 1000;
+		}
+		return false;
+	}
+	
+	// Evaluates If-Range, which only allows the range if the representation is unchanged (by strong tag or date).
+	private boolean isRangeValid(String tag) {
+		if (!request.hasHeader(KnownHeader.IF_RANGE)) {
+			return true;
+		}
+		String value = request.getHeader(KnownHeader.IF_RANGE).trim();
+		if (value.startsWith("\"") || value.startsWith("W/")) {
+			return tag != null && !EntityTag.isWeak(tag) && value.equals(tag);
+		}
+		return modified != null && HttpDate.parse(value) == modified / 1000 * 1000;
+	}
+	
+	// Compresses a body at the policy's level, through the cache if the endpoint has one.
+	private byte[] compress(byte[] body, int length, CompressionEncoding ce) throws IOException {
+		if (ce == CompressionEncoding.NONE) {
+			return length == body.length ? body : Arrays.copyOf(body, length);
+		}
+		int level = compressionPolicy.getLevel(ce, compressionMetrics);
+		if (compressionCache != null && compressionPolicy.isCached()) {
+			return compressionCache.compress(body, length, ce, level);
+		}
+		long start = compressionMetrics != null ? compressionMetrics.start() : 0;
+		byte[] bytes = null;
+		try {
+			bytes = Compressor.compress(new ByteArrayInputStream(body, 0, length), ce, level);
+		} finally {
+			if (compressionMetrics != null) {
+				if (bytes != null) {
+					compressionMetrics.finish(ce, start, length, bytes.length);
+				} else {
+					compressionMetrics.cancel();
+				}
+			}
+		}
+		return bytes;
+	}
+	
+	// Sends the requested ranges of a file (read from base) or byte array, several ranges as multipart/byteranges.
+	private void sendRanges(List<long[]> ranges, long length, FileChannel file, long base, byte[] body) throws IOException {
+		if (ranges.isEmpty()) {
+			headerBuilder.putHeader("Content-Range", "bytes */" + length);
+			sendResponseHeaders(ResponseCode.RANGE_NOT_SATISFIABLE, CompressionEncoding.NONE, 0);
+			return;
+		}
+		if (ranges.size() == 1) {
+			long[] range = ranges.get(0);
+			headerBuilder.putHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+			if (file == null) {
+				sendResponse(ResponseCode.PARTIAL_CONTENT, encoding, body, (int) range[0], (int) (range[1] - range[0] + 1));
+				return;
+			}
+			sendResponseHeaders(ResponseCode.PARTIAL_CONTENT, encoding, range[1] - range[0] + 1);
+			writeRange(range, file, base, body);
+			return;
+		}
+		String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+		byte[][] partHeads = new byte[ranges.size()][];
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes();
+		long total = ByteRanges.size(ranges) + end.length;
+		for (int i = 0; i < partHeads.length; i++) {
+			long[] range = ranges.get(i);
+			partHeads[i] = ("\r\n--" + boundary + "\r\nContent-Type: " + mimeString + "\r\nContent-Range: bytes " + range[0] + "-" + range[1] + "/" + length + "\r\n\r\n").getBytes();
+			total += partHeads[i].length;
+		}
+		contentType = "multipart/byteranges; boundary=" + boundary;
+		sendResponseHeaders(ResponseCode.PARTIAL_CONTENT, encoding, total);
+		for (int i = 0; i < partHeads.length; i++) {
+			outputStream.write(partHeads[i]);
+			writeRange(ranges.get(i), file, base, body);
+		}
+		outputStream.write(end);
+	}
+	
+	// Only the bytes of the range are read from a file, with positional reads.
+	private void writeRange(long[] range, FileChannel file, long base, byte[] body) throws IOException {
+		long count = range[1] - range[0] + 1;
+		if (file != null) {
+			connection.writeFile(file, base + range[0], count);
+		} else {
+			outputStream.write(body, (int) range[0], (int) count);
 		}
-		outputStream.write(("Content-Length: " + length + "\r\n").getBytes());
-        for (String header : headerBuilder.toList()) {
-        	outputStream.write((header + "\r\n").getBytes());
-        }
-        outputStream.write("\r\n".getBytes());
 	}
 	
 	/**
@@ -132,6 +385,14 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		}
 	}
 	
+	private static void safeCloseStream(InputStream is) {
+		try {
+			is.close();
+		} catch (Exception e) {
+			//ignore
+		}
+	}
+	
 	private static void safeFlushStream(OutputStream os) {
 		try {
 			os.flush();
@@ -147,6 +408,119 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		}
 	}
 	
+	/**
+	 * Sets the entity tag of this response, which is sent as the ETag header and compared with the If-None-Match header
+	 * of the request. A tag set here is used instead of one computed by the {@link ETagMode}.
+	 * 
+	 * @param etag The tag, quoted or not, prefixed with W/ if it is weak.
+	 */
+	public void setETag(String etag) {
+		if (!complete) {
+			this.etag = EntityTag.normalize(etag);
+		}
+	}
+	
+	/**
+	 * Sets how the entity tag of this response is computed from its content if no tag was set.
+	 * 
+	 * @param etagMode The {@link ETagMode}.
+	 */
+	public void setETagMode(ETagMode etagMode) {
+		if (!complete) {
+			this.etagMode = etagMode;
+		}
+	}
+	
+	/**
+	 * Sets the cache compressed bodies are taken from and added to.
+	 * 
+	 * @param compressionCache The {@link CompressionCache}, or null if every body is compressed as it is sent.
+	 */
+	public void setCompressionCache(CompressionCache compressionCache) {
+		this.compressionCache = compressionCache;
+	}
+	
+	/**
+	 * Sets the policy deciding which bodies are compressed and at which level.
+	 * 
+	 * @param compressionPolicy The {@link CompressionPolicy}.
+	 * @param compressionMetrics The {@link CompressionMetrics} compressed bodies are counted by, may be null.
+	 */
+	public void setCompressionPolicy(CompressionPolicy compressionPolicy, CompressionMetrics compressionMetrics) {
+		this.compressionPolicy = compressionPolicy;
+		this.compressionMetrics = compressionMetrics;
+	}
+	
+	/**
+	 * Sets whether files are replaced by their precompressed sidecars when the client accepts their coding.
+	 * 
+	 * @param precompressedFiles True if sidecars are sent in place of files.
+	 */
+	public void setPrecompressedFiles(boolean precompressedFiles) {
+		this.precompressedFiles = precompressedFiles;
+	}
+	
+	/**
+	 * Sets the store responses offered as dictionaries are kept in, and which requests naming one are answered from.
+	 * 
+	 * @param dictionaryStore The {@link DictionaryStore}, or null if no dictionaries are offered or used.
+	 */
+	public void setDictionaryStore(DictionaryStore dictionaryStore) {
+		this.dictionaryStore = dictionaryStore;
+	}
+	
+	/**
+	 * Offers this response to the client as a dictionary for later requests to URLs matching a pattern, which are then
+	 * sent compressed against it (dcz) while the client keeps it. Has no effect on endpoints without a dictionary store.
+	 * 
+	 * @param match The URL pattern, such as /js/app.*.js.
+	 */
+	public void setUseAsDictionary(String match) {
+		setUseAsDictionary(match, null);
+	}
+	
+	/**
+	 * Offers this response to the client as a dictionary for later requests to URLs matching a pattern, which are then
+	 * sent compressed against it (dcz) while the client keeps it. Has no effect on endpoints without a dictionary store.
+	 * 
+	 * @param match The URL pattern, such as /js/app.*.js.
+	 * @param id The id the client sends back with the dictionary, may be null.
+	 */
+	public void setUseAsDictionary(String match, String id) {
+		if (complete || dictionaryStore == null) {
+			return;
+		}
+		// the Use-As-Dictionary header is only sent once the body is kept in the store
+		dictionaryMatch = match;
+		dictionaryId = id;
+	}
+	
+	// A structured field string.
+	private static String quote(String value) {
+		return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+	
+	// The dictionary a request names, if it accepts dcz and the body may be compressed against it.
+	private SharedDictionary findDictionary(ResponseCode rc, long length) {
+		if (dictionaryStore == null || request == null || rc != ResponseCode.OK || length < 0 || length > dictionaryStore.getMaxEntrySize()) {
+			return null;
+		}
+		if (!request.hasHeader(KnownHeader.AVAILABLE_DICTIONARY) || !AcceptEncoding.accepts(request.getHeader(KnownHeader.ACCEPT_ENCODING), Compressor.DICTIONARY_ZSTD)
+				|| !Compressor.isDictionaryAvailable()) {
+			return null;
+		}
+		SharedDictionary dictionary = dictionaryStore.find(request.getHeader(KnownHeader.AVAILABLE_DICTIONARY));
+		// a dictionary is only used for the URLs it was offered for, and when the client names the id it was given
+		if (dictionary == null || !dictionary.matches(request.getPath())) {
+			return null;
+		}
+		if (dictionary.getId() != null && (!request.hasHeader(KnownHeader.DICTIONARY_ID)
+				|| !request.getHeader(KnownHeader.DICTIONARY_ID).trim().equals(quote(dictionary.getId())))) {
+			return null;
+		}
+		return dictionary;
+	}
+	
 	@Override
 	public void setMimeString(String mime) {
 		if (!complete) {
@@ -154,8 +528,20 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		}
 	}
 	
-	private boolean sent;
+	// read by the thread handling the request, which may not be the one writing the response
+	private volatile boolean started;
+	private volatile boolean sent;
 	
+	/**
+	 * @return True once writing the response has begun.
+	 */
+	public boolean isStarted() {
+		return started;
+	}
+	
+	/**
+	 * @return True once the response has been completely written.
+	 */
 	public boolean isCompleted() {
 		return sent;
 	}
@@ -168,6 +554,10 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		private ResponseCode rc;
 		private CompressionEncoding ce;
 		
+		// The file the body is read from, and the body once it is held in memory.
+		private FileChannel file;
+		private byte[] body;
+		
 		public SendResponseHeadersImpl(ProteusHeaderBuilder headerBuilder, ResponseCode rc, CompressionEncoding ce, InputStream in) {
 			this.in = in;
 			this.headerBuilder = headerBuilder;
@@ -188,33 +578,259 @@ public class ProteusHttpResponseImpl implements ProteusHttpResponse {
 		@Override
 		protected boolean run() {
 			try {
-				sent = true;
-				byte[] compressed = Compressor.compress(in, ce);
-				InputStream s = new ByteArrayInputStream(compressed);
-				byte[] bytes = s.readNBytes(65536);
-				if (bytes.length < 65536) {
-					sendResponseHeaders(rc, encoding != ce ? encoding : ce, bytes.length);
-					outputStream.write(bytes);
-					if (keepAlive != null) keepAlive.dispatch(server.getEventDispatcher());
-					return true;
-				} else if (bytes.length > 0) {
-					sendChunkedResponseHeaders(rc, encoding != ce ? encoding : ce);
-					do {
-						outputStream.write((Integer.toHexString(bytes.length) + "\r\n").getBytes());
-						outputStream.write(bytes);
-						outputStream.write("\r\n".getBytes());
-					} while ((bytes = s.readNBytes(65536)).length > 0);
-					outputStream.write("0\r\n".getBytes());
-					outputStream.write("\r\n".getBytes());
-					if (keepAlive != null) keepAlive.dispatch(server.getEventDispatcher());
-					return true;
+				started = true;
+				file = in instanceof FileInputStream ? ((FileInputStream) in).getChannel() : null;
+				long known = readStart();
+				// the coding depends on the client's Accept-Encoding whenever the body could be sent compressed (or was
+				// compressed before, as sidecars are)
+				boolean negotiated = (ce == CompressionEncoding.NONE && encoding != CompressionEncoding.NONE) || compressionPolicy.allows(mimeString, known);
+				// small bodies and those of types the policy excludes (such as images) are not worth compressing
+				if (ce != CompressionEncoding.NONE && !compressionPolicy.allows(mimeString, known)) {
+					uncompressed();
 				}
-			} catch (IOException e) {
+				boolean rangeable = rc == ResponseCode.OK && (file != null || in instanceof ByteArrayInputStream);
+				boolean ranged = rangeable && request != null && request.getMethod().equals("GET") && request.hasHeader(KnownHeader.RANGE);
+				if (rangeable) {
+					headerBuilder.putHeader("Accept-Ranges", "bytes");
+					if (ranged) {
+						// ranges are of the uncompressed bytes (or those the handler encoded itself)
+						if (encoding == ce) {
+							encoding = CompressionEncoding.NONE;
+						}
+						ce = CompressionEncoding.NONE;
+					}
+				}
+				// a client holding a dictionary this endpoint offered is sent the body compressed against it, in place of
+				// the coding it negotiated (ranges and bodies the policy leaves uncompressed excepted)
+				SharedDictionary dictionary = ce != CompressionEncoding.NONE ? findDictionary(rc, known) : null;
+				boolean offered = dictionaryMatch != null && rc == ResponseCode.OK && known >= 0 && known <= dictionaryStore.getMaxEntrySize();
+				String tag = putVariantHeaders(entityTag(), dictionary, negotiated);
+				if (rc == ResponseCode.OK && isNotModified(tag)) {
+					sendNotModifiedHeaders();
+				} else if (isHead()) {
+					sendHead(dictionary);
+				} else if (!(ranged && isRangeValid(tag) && sendRange())) {
+					if (offered) {
+						offerDictionary();
+					}
+					if (dictionary != null) {
+						sendAgainstDictionary(dictionary);
+					} else if (file != null && ce == CompressionEncoding.NONE) {
+						sendFileBody();
+					} else if (!sendCached()) {
+						sendStreamed();
+					}
+				}
+				completeConnection();
+				return true;
+			} catch (Throwable e) {
+				// the connection would otherwise wait for a response which is never written
 				e.printStackTrace();
+			} finally {
+				safeCloseStream(in);
 			}
+			connection.finish();
 			return false;
 		}
 		
+		// A stream to be compressed is read up to one buffer first, so a short one is found too small for the policy
+		// before it is tagged, whether it is then sent to GET or HEAD. Returns the length of the body, -1 if unknown.
+		private long readStart() throws IOException {
+			if (ce != CompressionEncoding.NONE && file == null && !(in instanceof ByteArrayInputStream)) {
+				byte[] start = in.readNBytes(BUFFER_SIZE);
+				if (start.length < BUFFER_SIZE) {
+					body = start;
+				} else {
+					in = new SequenceInputStream(new ByteArrayInputStream(start), in);
+				}
+			}
+			return body != null ? body.length : file != null ? file.size() - file.position() : in instanceof ByteArrayInputStream ? in.available() : -1;
+		}
+		
+		private void uncompressed() {
+			ce = CompressionEncoding.NONE;
+			encoding = CompressionEncoding.NONE;
+		}
+		
+		// The tag set by the handler, or one computed by the ETagMode. Only bodies already held in memory are hashed,
+		// files are tagged by sendFile from their metadata and other streams are sent untagged rather than read in full.
+		private String entityTag() throws IOException {
+			String tag = etag;
+			if (tag == null && etagMode != ETagMode.NONE && (body != null || in instanceof ByteArrayInputStream)) {
+				if (body == null) {
+					body = in.readAllBytes();
+				}
+				tag = EntityTag.compute(body, body.length, etagMode == ETagMode.WEAK);
+				if (ce != CompressionEncoding.NONE && !compressionPolicy.allows(mimeString, body.length)) {
+					uncompressed();
+				}
+			}
+			return tag;
+		}
+		
+		// Shared caches must keep each coding (and each dictionary) of the response apart, with its own tag.
+		private String putVariantHeaders(String tag, SharedDictionary dictionary, boolean negotiated) {
+			if (dictionary != null) {
+				headerBuilder.putHeader("Vary", "Accept-Encoding, Available-Dictionary");
+			} else if (negotiated) {
+				headerBuilder.putHeader("Vary", "Accept-Encoding");
+			}
+			if (tag == null) {
+				return null;
+			}
+			// bodies compressed against different dictionaries are different bytes
+			String coding = dictionary != null ? Compressor.DICTIONARY_ZSTD + "-" + HexFormat.of().formatHex(dictionary.getHash(), 0, 4)
+					: encoding != CompressionEncoding.NONE ? encoding.getName() : null;
+			tag = EntityTag.forCoding(tag, coding);
+			headerBuilder.putHeader("ETag", tag);
+			return tag;
+		}
+		
+		private void sendHead(SharedDictionary dictionary) throws IOException {
+			if (dictionary != null) {
+				headerBuilder.putHeader("Content-Encoding", Compressor.DICTIONARY_ZSTD);
+				sendHeadResponseHeaders(rc, CompressionEncoding.NONE, -1);
+				return;
+			}
+			long length = body != null ? body.length : in instanceof ByteArrayInputStream ? in.available()
+					: file != null && ce == CompressionEncoding.NONE ? file.size() - file.position() : -1;
+			sendHeadResponseHeaders(rc, encoding, length);
+		}
+		
+		// Sends the requested ranges, or returns false if the Range header is invalid and the whole body is to be sent.
+		private boolean sendRange() throws IOException {
+			if (file == null && body == null) {
+				body = in.readAllBytes();
+			}
+			long base = file != null ? file.position() : 0;
+			long length = file != null ? file.size() - base : body.length;
+			List<long[]> ranges = ByteRanges.parse(request.getHeader(KnownHeader.RANGE), length);
+			if (ranges == null) {
+				return false;
+			}
+			sendRanges(ranges, length, file, base, body);
+			return true;
+		}
+		
+		// Dictionaries and the bodies compressed against them are held in full.
+		private void holdBody() throws IOException {
+			if (body == null) {
+				body = in.readAllBytes();
+				file = null;
+			}
+		}
+		
+		// The client is only told to keep a body the server can use as a dictionary.
+		private void offerDictionary() throws IOException {
+			holdBody();
+			if (dictionaryStore.put(body, body.length, dictionaryMatch, dictionaryId) != null) {
+				String value = "match=" + quote(dictionaryMatch);
+				if (dictionaryId != null) {
+					value += ", id=" + quote(dictionaryId);
+				}
+				headerBuilder.putHeader("Use-As-Dictionary", value);
+			}
+		}
+		
+		private void sendAgainstDictionary(SharedDictionary dictionary) throws IOException {
+			holdBody();
+			int level = compressionPolicy.getDictionaryLevel();
+			boolean cached = compressionCache != null && compressionPolicy.isCached();
+			byte[] bytes = cached ? compressionCache.compress(body, body.length, dictionary, level)
+					: Compressor.compress(body, body.length, dictionary, level);
+			// the savings are counted against the coding negotiated without the dictionary, where it was cached for
+			// other clients, the body is not compressed again only to count them
+			int baseline = cached && compressionMetrics != null ? compressionCache.getCompressedLength(body, body.length, ce) : -1;
+			if (baseline >= 0) {
+				compressionMetrics.dictionary(bytes.length, baseline);
+			}
+			headerBuilder.putHeader("Content-Encoding", Compressor.DICTIONARY_ZSTD);
+			sendResponse(rc, CompressionEncoding.NONE, bytes, 0, bytes.length);
+		}
+		
+		// The file is written after its head, by the kernel where the socket allows.
+		private void sendFileBody() throws IOException {
+			long position = file.position();
+			sendResponseHeaders(rc, encoding, file.size() - position);
+			connection.writeFile(file, position, file.size() - position);
+		}
+		
+		// Static bodies held in memory are compressed once and served from the cache after, returns false if the body
+		// is not cached.
+		private boolean sendCached() throws IOException {
+			if (compressionCache == null || !compressionPolicy.isCached() || ce == CompressionEncoding.NONE) {
+				return false;
+			}
+			if (body == null && in instanceof ByteArrayInputStream && in.available() <= compressionCache.getMaxEntrySize()) {
+				body = in.readAllBytes();
+			}
+			if (body == null || body.length > compressionCache.getMaxEntrySize()) {
+				return false;
+			}
+			byte[] bytes = compress(body, body.length, ce);
+			sendResponse(rc, encoding, bytes, 0, bytes.length);
+			return true;
+		}
+		
+		// A body which fits in one buffer is sent with its length, larger bodies are compressed and sent in chunks as
+		// they are read, never held in full.
+		private void sendStreamed() throws IOException {
+			InputStream source = body != null ? new ByteArrayInputStream(body) : in;
+			long length = body != null ? body.length : file != null ? file.size() - file.position() : in instanceof ByteArrayInputStream ? in.available() : -1;
+			byte[] buffer = source.readNBytes(BUFFER_SIZE);
+			if (buffer.length < BUFFER_SIZE) {
+				if (ce != CompressionEncoding.NONE && !compressionPolicy.allows(mimeString, buffer.length)) {
+					uncompressed();
+				}
+				byte[] bytes = compress(buffer, buffer.length, ce);
+				sendResponse(rc, encoding, bytes, 0, bytes.length);
+				return;
+			}
+			// the head is held back and written with the first chunk
+			ResponseHead head = responseHead(rc, encoding).header("Transfer-Encoding", "chunked").end();
+			ChunkedOutputStream chunks = new ChunkedOutputStream(outputStream, BUFFER_SIZE, head.getBuffer(), head.getLength());
+			long total = 0;
+			// very large bodies may be compressed in blocks on several processors, as the policy allows
+			OutputStream chunked = Compressor.compressingStream(chunks, ce, compressionPolicy.getLevel(ce, compressionMetrics), compressionPolicy.getParallelism(ce, length));
+			long start = compressionMetrics != null && ce != CompressionEncoding.NONE ? compressionMetrics.start() : 0;
+			boolean ended = false;
+			try {
+				int read = buffer.length;
+				do {
+					chunked.write(buffer, 0, read);
+					total += read;
+				} while ((read = source.read(buffer)) >= 0);
+				chunked.close();
+				ended = true;
+			} finally {
+				if (!ended) {
+					// a body cut short is not ended with the coding's trailer and the last chunk, which would make it look
+					// complete, the connection is closed instead (the encoder is only closed to release it)
+					chunks.abort();
+					safeCloseStream(chunked);
+				}
+				if (compressionMetrics != null && ce != CompressionEncoding.NONE) {
+					if (ended) {
+						compressionMetrics.finish(ce, start, total, chunks.getLength(), chunked);
+					} else {
+						compressionMetrics.cancel();
+					}
+				}
+			}
+		}
+		
+	}
+
+	// Hands the connection back to its request loop once the response has been written.
+	private void completeConnection() {
+		safeFlushStream(outputStream);
+		sent = true;
+		connection.responseWritten();
+		if (keepAlive != null) {
+			keepAlive.dispatch(server.getEventDispatcher());
+		} else {
+			connection.finish();
+		}
 	}
 
 	@Override
@@ -0,0 +1,108 @@
+package net.winrob.proteus.compression;
+
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Bounded pools of zlib encoders, decoders and their buffers, so streams reuse the native memory of earlier streams
+ * instead of each allocating their own and holding it until they are finalized. Instances are reset when they are
+ * returned, those returned to a full pool are ended at once.
+ * 
+ * @author Winter Roberts
+ *
+ */
+class CodecPool {
+	
+	/**
+	 * The size of the buffers streams read and write compressed bytes through.
+	 */
+	static final int BUFFER_SIZE = 65536;
+	
+	private static final int CAPACITY = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+	
+	private static final Pool<Deflater> ZLIB_DEFLATERS = new Pool<>(CAPACITY);
+	private static final Pool<Deflater> RAW_DEFLATERS = new Pool<>(CAPACITY);
+	private static final Pool<Inflater> ZLIB_INFLATERS = new Pool<>(CAPACITY);
+	private static final Pool<Inflater> RAW_INFLATERS = new Pool<>(CAPACITY);
+	private static final Pool<byte[]> BUFFERS = new Pool<>(CAPACITY * 2);
+	
+	private CodecPool() {
+	
+	}
+	
+	/**
+	 * @param nowrap True for raw deflate data (as gzip carries), false for the zlib format.
+	 * @param level The level, or {@link CompressionPolicy#DEFAULT_LEVEL} for the default.
+	 * @return A deflater, which must be given back with {@link #release(Deflater, boolean)}.
+	 */
+	static Deflater deflater(boolean nowrap, int level) {
+		int zlibLevel = level >= 0 ? Math.min(level, 9) : Deflater.DEFAULT_COMPRESSION;
+		Deflater deflater = (nowrap ? RAW_DEFLATERS : ZLIB_DEFLATERS).poll();
+		if (deflater == null) {
+			return new Deflater(zlibLevel, nowrap);
+		}
+		deflater.setLevel(zlibLevel);
+		return deflater;
+	}
+	
+	static void release(Deflater deflater, boolean nowrap) {
+		deflater.reset();
+		if (!(nowrap ? RAW_DEFLATERS : ZLIB_DEFLATERS).offer(deflater)) {
+			deflater.end();
+		}
+	}
+	
+	/**
+	 * @param nowrap True for raw deflate data (as gzip carries), false for the zlib format.
+	 * @return An inflater, which must be given back with {@link #release(Inflater, boolean)}.
+	 */
+	static Inflater inflater(boolean nowrap) {
+		Inflater inflater = (nowrap ? RAW_INFLATERS : ZLIB_INFLATERS).poll();
+		return inflater != null ? inflater : new Inflater(nowrap);
+	}
+	
+	static void release(Inflater inflater, boolean nowrap) {
+		inflater.reset();
+		if (!(nowrap ? RAW_INFLATERS : ZLIB_INFLATERS).offer(inflater)) {
+			inflater.end();
+		}
+	}
+	
+	/**
+	 * @return A buffer of {@link #BUFFER_SIZE} bytes, which must be given back with {@link #release(byte[])}.
+	 */
+	static byte[] buffer() {
+		byte[] buffer = BUFFERS.poll();
+		return buffer != null ? buffer : new byte[BUFFER_SIZE];
+	}
+	
+	static void release(byte[] buffer) {
+		BUFFERS.offer(buffer);
+	}
+	
+	private static class Pool<T> {
+	
+		private final ArrayDeque<T> items;
+		private final int capacity;
+	
+		public Pool(int capacity) {
+			this.items = new ArrayDeque<>(capacity);
+			this.capacity = capacity;
+		}
+	
+		public synchronized T poll() {
+			return items.pollLast();
+		}
+	
+		public synchronized boolean offer(T item) {
+			if (items.size() >= capacity) {
+				return false;
+			}
+			items.addLast(item);
+			return true;
+		}
+	
+	}
+
+}
@@ -0,0 +1,278 @@
+package net.winrob.proteus.compression;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the compressed representations of response bodies, keyed by a hash of their content and the
+ * {@link CompressionEncoding}, so identical bodies (such as static pages and scripts) are compressed once and then
+ * served as they are. Bodies compressed against a {@link SharedDictionary} are kept as variants of their own, keyed
+ * by the dictionary's hash as well. The cache is bounded by the bytes it holds, the least recently used entries are
+ * dropped first.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class CompressionCache {
+	
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	
+	// The memory taken by an entry besides its bytes: the key, its digest and the map entry.
+	private static final int ENTRY_OVERHEAD = 160;
+	
+	private final long capacity;
+	private final int maxEntrySize;
+	private final LinkedHashMap<Key, byte[]> entries;
+	private final CompressionMetrics metrics;
+	private long size;
+	
+	private long hits;
+	private long misses;
+	
+	/**
+	 * Creates a new compression cache.
+	 * 
+	 * @param capacity The number of bytes the cache may hold.
+	 */
+	public CompressionCache(long capacity) {
+		this(capacity, null);
+	}
+	
+	/**
+	 * Creates a new compression cache which records the bodies it compresses.
+	 * 
+	 * @param capacity The number of bytes the cache may hold.
+	 * @param metrics The {@link CompressionMetrics} bodies compressed on a miss are counted by, may be null.
+	 */
+	public CompressionCache(long capacity, CompressionMetrics metrics) {
+		this.capacity = capacity;
+		this.metrics = metrics;
+		// a single entry may not take more than an eighth of the cache, or one large body would empty it
+		this.maxEntrySize = (int) Math.min(Integer.MAX_VALUE - 8, capacity / 8);
+		this.entries = new LinkedHashMap<>(64, 0.75f, true);
+		this.size = 0;
+	}
+	
+	/**
+	 * @return The largest body which is cached, larger bodies are compressed on every call.
+	 */
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+	
+	/**
+	 * Compresses a body, or returns the bytes it was compressed to before. The returned array is shared and must not be
+	 * modified.
+	 * 
+	 * @param body The body to be compressed.
+	 * @param length The length of the body.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @return The encoded body.
+	 * @throws IOException If the body cannot be encoded.
+	 */
+	public byte[] compress(byte[] body, int length, CompressionEncoding ce) throws IOException {
+		return compress(body, length, ce, CompressionPolicy.DEFAULT_LEVEL);
+	}
+	
+	/**
+	 * Compresses a body at a level, or returns the bytes it was compressed to before (at whichever level it was then).
+	 * The returned array is shared and must not be modified.
+	 * 
+	 * @param body The body to be compressed.
+	 * @param length The length of the body.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The encoded body.
+	 * @throws IOException If the body cannot be encoded.
+	 */
+	public byte[] compress(byte[] body, int length, CompressionEncoding ce, int level) throws IOException {
+		if (ce == CompressionEncoding.NONE) {
+			return length == body.length ? body : Arrays.copyOf(body, length);
+		}
+		Key key = null;
+		if (length <= maxEntrySize) {
+			key = new Key(digest(body, length), length, ce, null);
+			synchronized (this) {
+				byte[] cached = entries.get(key);
+				if (cached != null) {
+					hits++;
+					return cached;
+				}
+				misses++;
+			}
+		}
+		// bodies are compressed outside the lock, two threads may compress the same body once each
+		long start = metrics != null ? metrics.start() : 0;
+		byte[] compressed = null;
+		try {
+			compressed = Compressor.compress(new ByteArrayInputStream(body, 0, length), ce, level);
+		} finally {
+			if (metrics != null) {
+				if (compressed != null) {
+					metrics.finish(ce, start, length, compressed.length);
+				} else {
+					metrics.cancel();
+				}
+			}
+		}
+		if (key != null && compressed.length <= maxEntrySize) {
+			put(key, compressed);
+		}
+		return compressed;
+	}
+	
+	/**
+	 * Looks up the length a body was compressed to before, without compressing it or counting a hit or a miss.
+	 * 
+	 * @param body The body.
+	 * @param length The length of the body.
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The length of the encoded body, or -1 if it is not cached.
+	 */
+	public int getCompressedLength(byte[] body, int length, CompressionEncoding ce) {
+		if (ce == CompressionEncoding.NONE) {
+			return length;
+		}
+		if (length > maxEntrySize) {
+			return -1;
+		}
+		Key key = new Key(digest(body, length), length, ce, null);
+		synchronized (this) {
+			byte[] cached = entries.get(key);
+			return cached != null ? cached.length : -1;
+		}
+	}
+	
+	/**
+	 * Compresses a body against a shared dictionary, or returns the bytes it was compressed to before against the same
+	 * dictionary. The returned array is shared and must not be modified.
+	 * 
+	 * @param body The body to be compressed.
+	 * @param length The length of the body.
+	 * @param dictionary The {@link SharedDictionary} the client holds.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The body in the dcz coding.
+	 * @throws IOException If the body cannot be encoded.
+	 */
+	public byte[] compress(byte[] body, int length, SharedDictionary dictionary, int level) throws IOException {
+		Key key = null;
+		if (length <= maxEntrySize) {
+			// variants are told apart from plain entries by the dictionary, their coding is always dcz
+			key = new Key(digest(body, length), length, CompressionEncoding.NONE, dictionary.getHash());
+			synchronized (this) {
+				byte[] cached = entries.get(key);
+				if (cached != null) {
+					hits++;
+					return cached;
+				}
+				misses++;
+			}
+		}
+		byte[] compressed = Compressor.compress(body, length, dictionary, level);
+		if (key != null && compressed.length <= maxEntrySize) {
+			put(key, compressed);
+		}
+		return compressed;
+	}
+	
+	/**
+	 * @param bytes The bytes to be hashed.
+	 * @param length The number of bytes to hash.
+	 * @return The SHA-256 hash of the bytes.
+	 */
+	static byte[] digest(byte[] bytes, int length) {
+		MessageDigest digest = DIGEST.get();
+		digest.reset();
+		digest.update(bytes, 0, length);
+		return digest.digest();
+	}
+	
+	private synchronized void put(Key key, byte[] compressed) {
+		byte[] previous = entries.put(key, compressed);
+		if (previous != null) {
+			size -= previous.length + ENTRY_OVERHEAD;
+		}
+		size += compressed.length + ENTRY_OVERHEAD;
+		Iterator<Map.Entry<Key, byte[]>> iterator = entries.entrySet().iterator();
+		while (size > capacity && iterator.hasNext()) {
+			Map.Entry<Key, byte[]> eldest = iterator.next();
+			size -= eldest.getValue().length + ENTRY_OVERHEAD;
+			iterator.remove();
+		}
+	}
+	
+	/**
+	 * @return The number of bytes held by the cache.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	/**
+	 * @return The number of bodies served from the cache.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	/**
+	 * @return The number of cacheable bodies which had to be compressed.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	/**
+	 * Drops every entry.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+	
+	private static class Key {
+	
+		private final byte[] digest;
+		private final int length;
+		private final CompressionEncoding ce;
+		private final byte[] dictionary;
+		private final int hash;
+	
+		public Key(byte[] digest, int length, CompressionEncoding ce, byte[] dictionary) {
+			this.digest = digest;
+			this.length = length;
+			this.ce = ce;
+			this.dictionary = dictionary;
+			this.hash = (Arrays.hashCode(digest) * 31 + ce.ordinal()) * 31 + Arrays.hashCode(dictionary);
+		}
+	
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return length == other.length && ce == other.ce && Arrays.equals(digest, other.digest)
+					&& Arrays.equals(dictionary, other.dictionary);
+		}
+	
+	}
+
+}
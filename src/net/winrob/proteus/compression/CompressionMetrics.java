@@ -0,0 +1,198 @@
+package net.winrob.proteus.compression;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the bodies compressed in each {@link CompressionEncoding}, the bytes before and after and the processor time
+ * spent compressing them, and what bodies compressed against shared dictionaries saved. All values are safe to read from any thread.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class CompressionMetrics {
+	
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported();
+	
+	private final LongAdder[] bodies;
+	private final LongAdder[] bytesIn;
+	private final LongAdder[] bytesOut;
+	private final LongAdder[] nanos;
+	private final AtomicInteger active;
+	private final LongAdder dictionaryBodies;
+	private final LongAdder dictionaryBytesOut;
+	private final LongAdder dictionaryBaseline;
+	
+	public CompressionMetrics() {
+		int encodings = CompressionEncoding.values().length;
+		bodies = new LongAdder[encodings];
+		bytesIn = new LongAdder[encodings];
+		bytesOut = new LongAdder[encodings];
+		nanos = new LongAdder[encodings];
+		for (int i = 0; i < encodings; i++) {
+			bodies[i] = new LongAdder();
+			bytesIn[i] = new LongAdder();
+			bytesOut[i] = new LongAdder();
+			nanos[i] = new LongAdder();
+		}
+		active = new AtomicInteger();
+		dictionaryBodies = new LongAdder();
+		dictionaryBytesOut = new LongAdder();
+		dictionaryBaseline = new LongAdder();
+	}
+	
+	/**
+	 * Marks the start of a compression on the calling thread.
+	 * 
+	 * @return The time the compression started, to be passed to {@link #finish}.
+	 */
+	public long start() {
+		active.incrementAndGet();
+		return cpuTime();
+	}
+	
+	/**
+	 * Marks the end of a compression started on the calling thread.
+	 * 
+	 * @param ce The {@link CompressionEncoding} used.
+	 * @param start The time returned by {@link #start}.
+	 * @param in The number of bytes compressed.
+	 * @param out The number of bytes they were compressed to.
+	 */
+	public void finish(CompressionEncoding ce, long start, long in, long out) {
+		active.decrementAndGet();
+		int i = ce.ordinal();
+		bodies[i].increment();
+		bytesIn[i].add(in);
+		bytesOut[i].add(out);
+		nanos[i].add(cpuTime() - start);
+	}
+	
+	/**
+	 * Marks the end of a compression started on the calling thread which failed, it is no longer active but is not
+	 * counted.
+	 */
+	public void cancel() {
+		active.decrementAndGet();
+	}
+	
+	/**
+	 * Marks the end of a compression started on the calling thread, part of which may have run on other threads.
+	 * 
+	 * @param ce The {@link CompressionEncoding} used.
+	 * @param start The time returned by {@link #start}.
+	 * @param in The number of bytes compressed.
+	 * @param out The number of bytes they were compressed to.
+	 * @param stream The compressing stream, the time a parallel stream spent on other threads is added.
+	 */
+	public void finish(CompressionEncoding ce, long start, long in, long out, OutputStream stream) {
+		finish(ce, start, in, out);
+		if (stream instanceof ParallelDeflatingOutputStream) {
+			nanos[ce.ordinal()].add(((ParallelDeflatingOutputStream) stream).getCpuTime());
+		}
+	}
+	
+	// The processor time of the calling thread where supported, so bodies streamed to slow clients are not counted
+	// while they wait on the socket. Threads whose time is not measured (virtual threads) count the elapsed time.
+	static long cpuTime() {
+		long time = CPU_TIME ? THREADS.getCurrentThreadCpuTime() : -1;
+		return time >= 0 ? time : System.nanoTime();
+	}
+	
+	/**
+	 * @return The number of bodies being compressed.
+	 */
+	public int getActive() {
+		return active.get();
+	}
+	
+	/**
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The number of bodies compressed in the encoding.
+	 */
+	public long getBodies(CompressionEncoding ce) {
+		return bodies[ce.ordinal()].sum();
+	}
+	
+	/**
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The number of bytes compressed in the encoding.
+	 */
+	public long getBytesIn(CompressionEncoding ce) {
+		return bytesIn[ce.ordinal()].sum();
+	}
+	
+	/**
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The number of bytes the encoding compressed bodies to.
+	 */
+	public long getBytesOut(CompressionEncoding ce) {
+		return bytesOut[ce.ordinal()].sum();
+	}
+	
+	/**
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The ratio of bytes before to bytes after compression, or 0 if nothing was compressed in the encoding.
+	 */
+	public double getRatio(CompressionEncoding ce) {
+		long out = getBytesOut(ce);
+		return out > 0 ? getBytesIn(ce) / (double) out : 0;
+	}
+	
+	/**
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return The processor time, in nanoseconds, spent compressing in the encoding (or the elapsed time where the
+	 * platform does not measure the time of a thread).
+	 */
+	public long getCpuTime(CompressionEncoding ce) {
+		return nanos[ce.ordinal()].sum();
+	}
+	
+	/**
+	 * Counts a body sent compressed against a shared dictionary.
+	 * 
+	 * @param out The number of bytes sent.
+	 * @param baseline The number of bytes the body took in the coding it would have been sent in without the dictionary.
+	 */
+	public void dictionary(long out, long baseline) {
+		dictionaryBodies.increment();
+		dictionaryBytesOut.add(out);
+		dictionaryBaseline.add(baseline);
+	}
+	
+	/**
+	 * @return The number of bodies sent compressed against a shared dictionary whose saving was measured (those served
+	 * through a compression cache, so the body is not compressed twice).
+	 */
+	public long getDictionaryBodies() {
+		return dictionaryBodies.sum();
+	}
+	
+	/**
+	 * @return The number of bytes those bodies were sent in.
+	 */
+	public long getDictionaryBytesOut() {
+		return dictionaryBytesOut.sum();
+	}
+	
+	/**
+	 * @return The number of bytes the same bodies took compressed without a dictionary (in Brotli, for the browsers
+	 * which send dictionaries).
+	 */
+	public long getDictionaryBaseline() {
+		return dictionaryBaseline.sum();
+	}
+	
+	/**
+	 * @return The fraction of the baseline bytes not sent thanks to dictionaries, or 0 if none were measured.
+	 */
+	public double getDictionarySavings() {
+		long baseline = getDictionaryBaseline();
+		return baseline > 0 ? 1 - getDictionaryBytesOut() / (double) baseline : 0;
+	}
+
+}
@@ -0,0 +1,252 @@
+package net.winrob.proteus.compression;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides which responses are compressed and how hard. Bodies smaller than the minimum size, or of a MIME type which is
+ * excluded (or not included, once any type is included), are sent uncompressed. Each {@link CompressionEncoding} is
+ * run at its own level, which an adaptive policy lowers while more bodies are being compressed at once than there are
+ * processors. Bodies compressed against a shared dictionary (dcz) have a level of their own. Bodies of a known length above the parallel threshold may be compressed in blocks on several processors
+ * at once, which is off unless a threshold is set. Compressed bodies are only kept in the endpoint's compression cache
+ * by policies which cache, set on the paths whose bodies are static.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class CompressionPolicy {
+	
+	/**
+	 * The level which leaves the encoder at its own default.
+	 */
+	public static final int DEFAULT_LEVEL = -1;
+	
+	private static final int PROCESSORS = Runtime.getRuntime().availableProcessors();
+	
+	private int minimumSize;
+	private final List<String> included;
+	private final List<String> excluded;
+	private boolean skipCompressedTypes;
+	private final Map<CompressionEncoding, Integer> levels;
+	private final Map<CompressionEncoding, Integer> adaptiveLevels;
+	private int dictionaryLevel;
+	private boolean adaptive;
+	private boolean cached;
+	private long parallelThreshold;
+	private int parallelism;
+	
+	public CompressionPolicy() {
+		minimumSize = 256;
+		included = new ArrayList<>();
+		excluded = new ArrayList<>();
+		skipCompressedTypes = true;
+		levels = new EnumMap<>(CompressionEncoding.class);
+		adaptiveLevels = new EnumMap<>(CompressionEncoding.class);
+		adaptiveLevels.put(CompressionEncoding.BR, 1);
+		adaptiveLevels.put(CompressionEncoding.GZIP, 1);
+		adaptiveLevels.put(CompressionEncoding.DEFLATE, 1);
+		dictionaryLevel = DEFAULT_LEVEL;
+		adaptive = false;
+		cached = false;
+		parallelThreshold = -1;
+		parallelism = ParallelDeflatingOutputStream.POOL_SIZE;
+	}
+	
+	/**
+	 * @return The size, in bytes, below which bodies are sent uncompressed.
+	 */
+	public int getMinimumSize() {
+		return minimumSize;
+	}
+	
+	public CompressionPolicy setMinimumSize(int minimumSize) {
+		this.minimumSize = Math.max(0, minimumSize);
+		return this;
+	}
+	
+	/**
+	 * Includes a MIME type, once any type is included only bodies of included types are compressed.
+	 * 
+	 * @param mime The type, such as text/html, or a type with any subtype, such as text/*.
+	 * @return This policy.
+	 */
+	public CompressionPolicy include(String mime) {
+		included.add(mime.trim().toLowerCase());
+		return this;
+	}
+	
+	/**
+	 * Excludes a MIME type, bodies of excluded types are never compressed.
+	 * 
+	 * @param mime The type, such as text/html, or a type with any subtype, such as text/*.
+	 * @return This policy.
+	 */
+	public CompressionPolicy exclude(String mime) {
+		excluded.add(mime.trim().toLowerCase());
+		return this;
+	}
+	
+	/**
+	 * @return True if types which are already compressed (images, video, archives) are never compressed again.
+	 */
+	public boolean isSkipCompressedTypes() {
+		return skipCompressedTypes;
+	}
+	
+	public CompressionPolicy setSkipCompressedTypes(boolean skipCompressedTypes) {
+		this.skipCompressedTypes = skipCompressedTypes;
+		return this;
+	}
+	
+	/**
+	 * Sets the level of an encoding, 0 to 9 for gzip and deflate, 0 to 11 for Brotli, 1 to 19 for zstd.
+	 * 
+	 * @param ce The {@link CompressionEncoding}.
+	 * @param level The level, or {@link #DEFAULT_LEVEL} for the encoder's default.
+	 * @return This policy.
+	 */
+	public CompressionPolicy setLevel(CompressionEncoding ce, int level) {
+		levels.put(ce, level);
+		return this;
+	}
+	
+	/**
+	 * Sets the level of an encoding used by an adaptive policy while the processors are saturated.
+	 * 
+	 * @param ce The {@link CompressionEncoding}.
+	 * @param level The level.
+	 * @return This policy.
+	 */
+	public CompressionPolicy setAdaptiveLevel(CompressionEncoding ce, int level) {
+		adaptiveLevels.put(ce, level);
+		return this;
+	}
+	
+	/**
+	 * @return The level of bodies compressed against a shared dictionary (dcz), 1 to 19, or {@link #DEFAULT_LEVEL} for
+	 * zstd's default.
+	 */
+	public int getDictionaryLevel() {
+		return dictionaryLevel;
+	}
+	
+	public CompressionPolicy setDictionaryLevel(int dictionaryLevel) {
+		this.dictionaryLevel = dictionaryLevel;
+		return this;
+	}
+	
+	/**
+	 * @return True if the level is lowered while more bodies are being compressed at once than there are processors.
+	 */
+	public boolean isAdaptive() {
+		return adaptive;
+	}
+	
+	public CompressionPolicy setAdaptive(boolean adaptive) {
+		this.adaptive = adaptive;
+		return this;
+	}
+	
+	/**
+	 * @return True if bodies held in memory are compressed once and then served from the endpoint's compression cache.
+	 * Bodies which differ on every request would only push out others, so the cache is only used where set.
+	 */
+	public boolean isCached() {
+		return cached;
+	}
+	
+	public CompressionPolicy setCached(boolean cached) {
+		this.cached = cached;
+		return this;
+	}
+	
+	/**
+	 * @return The size, in bytes, from which gzip and deflate bodies are compressed in parallel, or -1 if none are.
+	 */
+	public long getParallelThreshold() {
+		return parallelThreshold;
+	}
+	
+	public CompressionPolicy setParallelThreshold(long parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+		return this;
+	}
+	
+	/**
+	 * @return The most blocks of one body compressed at once, never more than the shared pool's threads (half the
+	 * processors).
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	public CompressionPolicy setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, Math.min(parallelism, ParallelDeflatingOutputStream.POOL_SIZE));
+		return this;
+	}
+	
+	/**
+	 * Checks if a body should be compressed.
+	 * 
+	 * @param mime The MIME type of the body, parameters are ignored.
+	 * @param length The length of the body, or -1 if it is not known yet.
+	 * @return True if the body should be compressed.
+	 */
+	public boolean allows(String mime, long length) {
+		if (length >= 0 && length < minimumSize) {
+			return false;
+		}
+		if (mime == null) {
+			return included.isEmpty();
+		}
+		if (skipCompressedTypes && Compressor.isCompressedType(mime)) {
+			return false;
+		}
+		int end = mime.indexOf(';');
+		String type = (end < 0 ? mime : mime.substring(0, end)).trim().toLowerCase();
+		if (matches(excluded, type)) {
+			return false;
+		}
+		return included.isEmpty() || matches(included, type);
+	}
+	
+	private static boolean matches(List<String> patterns, String type) {
+		for (String pattern : patterns) {
+			if (pattern.endsWith("/*") ? type.startsWith(pattern.substring(0, pattern.length() - 1)) : type.equals(pattern)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Chooses the level a body is compressed at.
+	 * 
+	 * @param ce The {@link CompressionEncoding}.
+	 * @param metrics The metrics counting the bodies being compressed, may be null.
+	 * @return The level, or {@link #DEFAULT_LEVEL} for the encoder's default.
+	 */
+	public int getLevel(CompressionEncoding ce, CompressionMetrics metrics) {
+		if (adaptive && metrics != null && metrics.getActive() > PROCESSORS && adaptiveLevels.containsKey(ce)) {
+			return adaptiveLevels.get(ce);
+		}
+		return levels.getOrDefault(ce, DEFAULT_LEVEL);
+	}
+	
+	/**
+	 * Chooses how many blocks of a body are compressed at once.
+	 * 
+	 * @param ce The {@link CompressionEncoding}.
+	 * @param length The length of the body, or -1 if it is not known.
+	 * @return The parallelism, or 1 if the body is compressed on the thread sending it.
+	 */
+	public int getParallelism(CompressionEncoding ce, long length) {
+		if (parallelThreshold < 0 || length < 0 || length < parallelThreshold) {
+			return 1;
+		}
+		return ce == CompressionEncoding.GZIP || ce == CompressionEncoding.DEFLATE ? parallelism : 1;
+	}
+
+}
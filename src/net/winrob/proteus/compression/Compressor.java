@@ -5,25 +5,33 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.zip.Deflater;
-import java.util.zip.DeflaterInputStream;
-import java.util.zip.DeflaterOutputStream;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
 
 import com.nixxcode.jvmbrotli.dec.BrotliInputStream;
 import com.nixxcode.jvmbrotli.enc.BrotliOutputStream;
 import com.nixxcode.jvmbrotli.enc.Encoder.Parameters;
 
 /**
- * A utility class which wraps input in the named {@link CompressionEncoding} to a byte[].
+ * A utility class which wraps input in the named {@link CompressionEncoding}, either to a byte[] or incrementally
+ * through wrapping streams and channels which hold only their buffers, whatever the length of the content. Besides
+ * Brotli, gzip and deflate, an encoding named zstd is encoded with Zstandard.
  * 
  * @author Winter Roberts
  *
  */
 public class Compressor {
 	
+	/**
+	 * The content coding of bodies compressed with zstd against a {@link SharedDictionary}.
+	 */
+	public static final String DICTIONARY_ZSTD = "dcz";
+	
+	// A skippable zstd frame carrying the SHA-256 hash of the dictionary, which every dcz body starts with.
+	private static final byte[] DICTIONARY_ZSTD_HEADER = {0x5e, 0x2a, 0x4d, 0x18, 0x20, 0, 0, 0};
+	
 	/**
 	 * Compresses the string to an encoded byte[]
 	 * 
@@ -54,29 +62,263 @@ public class Compressor {
 	 * @throws IOException If the stream encoding causes a failure.
 	 */
 	public static byte[] compress(InputStream stream, CompressionEncoding ce) throws IOException {
+		return compress(stream, ce, CompressionPolicy.DEFAULT_LEVEL);
+	}
+	
+	/**
+	 * Compresses the stream to an encoded byte[] at a level.
+	 * 
+	 * @param stream The stream to be compressed.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The resultant encoded byte[] as a byte[].
+	 * @throws IOException If the stream encoding causes a failure.
+	 */
+	public static byte[] compress(InputStream stream, CompressionEncoding ce, int level) throws IOException {
+		return compress(stream, ce, level, 1);
+	}
+	
+	/**
+	 * Compresses the stream to an encoded byte[] at a level, in blocks on several processors at once where the encoding
+	 * allows it (see {@link #compressingStream(OutputStream, CompressionEncoding, int, int)}).
+	 * 
+	 * @param stream The stream to be compressed.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @param parallelism The most blocks compressed at once, 1 to compress on the calling thread.
+	 * @return The resultant encoded byte[] as a byte[].
+	 * @throws IOException If the stream encoding causes a failure.
+	 */
+	public static byte[] compress(InputStream stream, CompressionEncoding ce, int level, int parallelism) throws IOException {
+		if (ce == CompressionEncoding.NONE) {
+			return stream.readAllBytes();
+		}
+		ByteArrayOutputStream obj = new ByteArrayOutputStream();
+		// the encoder is closed even when the stream cannot be read, which returns its pooled deflater
+		try (OutputStream o = compressingStream(obj, ce, level, parallelism)) {
+			byte[] bytes;
+			while ((bytes = stream.readNBytes(65536)).length != 0) {
+				o.write(bytes);
+			}
+		}
+		return obj.toByteArray();
+	}
+	
+	/**
+	 * Compresses a body against a dictionary the client holds, to the dcz coding: zstd with the dictionary as a prefix
+	 * the body refers back into, after a header naming the dictionary by its hash. A body which changed little from the
+	 * dictionary (such as a new version of a script) is compressed to little more than its changes.
+	 * 
+	 * @param body The body to be compressed.
+	 * @param length The length of the body.
+	 * @param dictionary The {@link SharedDictionary}.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The body in the dcz coding.
+	 * @throws IOException If the body cannot be encoded.
+	 */
+	public static byte[] compress(byte[] body, int length, SharedDictionary dictionary, int level) throws IOException {
 		ByteArrayOutputStream obj = new ByteArrayOutputStream();
-		OutputStream o;
+		obj.write(DICTIONARY_ZSTD_HEADER);
+		obj.write(dictionary.getHash());
+		try (OutputStream o = ZstdCodec.compressingStream(obj, dictionary.getContent(), level)) {
+			o.write(body, 0, length);
+		}
+		return obj.toByteArray();
+	}
+	
+	/**
+	 * @return True if bodies can be compressed against shared dictionaries, which needs zstd's native library.
+	 */
+	public static boolean isDictionaryAvailable() {
+		return ZstdCodec.isAvailable();
+	}
+	
+	/**
+	 * Wraps a stream so bytes written to it are compressed as they are written. Closing the returned stream finishes the
+	 * encoding and closes the wrapped stream.
+	 * 
+	 * @param out The stream the encoded bytes are written to.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @return The compressing stream, or out itself for {@link CompressionEncoding#NONE}.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	public static OutputStream compressingStream(OutputStream out, CompressionEncoding ce) throws IOException {
+		return compressingStream(out, ce, CompressionPolicy.DEFAULT_LEVEL);
+	}
+	
+	/**
+	 * Wraps a stream so bytes written to it are compressed at a level as they are written. Closing the returned stream
+	 * finishes the encoding and closes the wrapped stream.
+	 * 
+	 * @param out The stream the encoded bytes are written to.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The compressing stream, or out itself for {@link CompressionEncoding#NONE}.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	public static OutputStream compressingStream(OutputStream out, CompressionEncoding ce, int level) throws IOException {
 		switch(ce) {
 			case BR:
-				o = new BrotliOutputStream(obj, new Parameters(), 65536);
-				break;
+				Parameters parameters = new Parameters();
+				if (level >= 0) {
+					parameters.setQuality(Math.min(level, 11));
+				}
+				return new BrotliOutputStream(out, parameters, 65536);
 			case DEFLATE:
-				o = new DeflaterOutputStream(obj, new Deflater(Deflater.DEFAULT_COMPRESSION), 65536);
-				break;
+				// deflaters come from a pool, so their native memory is reused rather than held until finalization
+				return new DeflatingOutputStream(out, false, level);
 			case GZIP:
-				o = new GZIPOutputStream(obj, 65536);
-				break;
+				return new DeflatingOutputStream(out, true, level);
 			case NONE:
+				return out;
 			default:
-				return stream.readAllBytes();
+				// zstd is matched by its token, it has no case of its own
+				return ZstdCodec.isZstd(ce) ? ZstdCodec.compressingStream(out, level) : out;
 		}
-		byte[] bytes;
-		while ((bytes = stream.readNBytes(65536)).length != 0) {
-			o.write(bytes);
+	}
+	
+	/**
+	 * Wraps a stream so bytes written to it are compressed at a level in blocks, several of which are compressed at once
+	 * on a shared pool of half the processors, and written in order as a single gzip or deflate stream. Brotli, which
+	 * cannot be joined from blocks, is compressed on the writing thread. Closing the returned stream finishes the
+	 * encoding and closes the wrapped stream.
+	 * 
+	 * @param out The stream the encoded bytes are written to.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @param parallelism The most blocks of this stream compressed at once, 1 to compress on the writing thread.
+	 * @return The compressing stream, or out itself for {@link CompressionEncoding#NONE}.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	public static OutputStream compressingStream(OutputStream out, CompressionEncoding ce, int level, int parallelism) throws IOException {
+		if (parallelism > 1 && (ce == CompressionEncoding.GZIP || ce == CompressionEncoding.DEFLATE)) {
+			return new ParallelDeflatingOutputStream(out, ce == CompressionEncoding.GZIP, level, parallelism);
+		}
+		return compressingStream(out, ce, level);
+	}
+	
+	/**
+	 * Wraps a channel so bytes written to it are compressed as they are written. Closing the returned channel finishes
+	 * the encoding and closes the wrapped channel.
+	 * 
+	 * @param channel The channel the encoded bytes are written to.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @return The compressing channel.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	public static WritableByteChannel compressingChannel(WritableByteChannel channel, CompressionEncoding ce) throws IOException {
+		return compressingChannel(channel, ce, CompressionPolicy.DEFAULT_LEVEL);
+	}
+	
+	/**
+	 * Wraps a channel so bytes written to it are compressed at a level as they are written. Closing the returned
+	 * channel finishes the encoding and closes the wrapped channel.
+	 * 
+	 * @param channel The channel the encoded bytes are written to.
+	 * @param ce The {@link CompressionEncoding} to be used.
+	 * @param level The level of the encoder, or {@link CompressionPolicy#DEFAULT_LEVEL} for its default.
+	 * @return The compressing channel.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	public static WritableByteChannel compressingChannel(WritableByteChannel channel, CompressionEncoding ce, int level) throws IOException {
+		if (ce == CompressionEncoding.NONE) {
+			return channel;
+		}
+		return Channels.newChannel(compressingStream(Channels.newOutputStream(channel), ce, level));
+	}
+	
+	/**
+	 * Wraps a stream so bytes read from it are decompressed as they are read. Closing the returned stream closes the
+	 * wrapped stream.
+	 * 
+	 * @param in The stream the encoded bytes are read from.
+	 * @param ce The {@link CompressionEncoding} the bytes are encoded with.
+	 * @return The decompressing stream, or in itself for {@link CompressionEncoding#NONE}.
+	 * @throws IOException If the decoder cannot be created, or the stream does not start with a valid header.
+	 */
+	public static InputStream decompressingStream(InputStream in, CompressionEncoding ce) throws IOException {
+		switch(ce) {
+			case BR:
+				return new BrotliInputStream(in);
+			case DEFLATE:
+				return new InflatingInputStream(in, false);
+			case GZIP:
+				return new InflatingInputStream(in, true);
+			case NONE:
+				return in;
+			default:
+				return ZstdCodec.isZstd(ce) ? ZstdCodec.decompressingStream(in) : in;
+		}
+	}
+	
+	/**
+	 * Checks if an encoding can be used, zstd needs its native library.
+	 * 
+	 * @param ce The {@link CompressionEncoding}.
+	 * @return True if bodies can be compressed and decompressed with the encoding.
+	 */
+	public static boolean isAvailable(CompressionEncoding ce) {
+		return !ZstdCodec.isZstd(ce) || ZstdCodec.isAvailable();
+	}
+	
+	/**
+	 * Sets a trained dictionary zstd bodies are compressed with, and zstd request bodies which name it are decompressed
+	 * with. Only clients which hold the same dictionary can read the responses, so it should only be set on servers
+	 * whose zstd clients are known, such as internal services, and before bodies are cached.
+	 * 
+	 * @param dictionary The dictionary, as made by {@link #trainZstdDictionary(List, int)}, or null for none.
+	 * @throws IllegalArgumentException If the bytes are not a trained dictionary.
+	 */
+	public static void setZstdDictionary(byte[] dictionary) {
+		ZstdCodec.setDictionary(dictionary);
+	}
+	
+	/**
+	 * Trains a zstd dictionary on samples of the bodies it will compress, which improves the ratio of small bodies the
+	 * most.
+	 * 
+	 * @param samples The samples, such as typical responses of an API.
+	 * @param size The size of the dictionary, commonly about 100 KB.
+	 * @return The dictionary.
+	 */
+	public static byte[] trainZstdDictionary(List<byte[]> samples, int size) {
+		return ZstdCodec.train(samples, size);
+	}
+	
+	/**
+	 * Checks if content of a MIME type is already compressed (images, audio, video, archives and fonts), so compressing
+	 * it again costs time without making it smaller.
+	 * 
+	 * @param mime The MIME type, parameters are ignored.
+	 * @return True if the content is already compressed.
+	 */
+	public static boolean isCompressedType(String mime) {
+		if (mime == null) {
+			return false;
+		}
+		int end = mime.indexOf(';');
+		String type = (end < 0 ? mime : mime.substring(0, end)).trim().toLowerCase();
+		if (type.startsWith("image/")) {
+			return !type.equals("image/svg+xml") && !type.equals("image/bmp") && !type.equals("image/x-icon");
+		}
+		if (type.startsWith("video/") || type.startsWith("audio/") || type.startsWith("font/woff")) {
+			return true;
+		}
+		switch (type) {
+			case "application/zip":
+			case "application/gzip":
+			case "application/x-gzip":
+			case "application/x-bzip2":
+			case "application/x-xz":
+			case "application/x-7z-compressed":
+			case "application/x-rar-compressed":
+			case "application/zstd":
+			case "application/java-archive":
+			case "application/pdf":
+				return true;
+			default:
+				return false;
 		}
-		o.flush();
-		o.close();
-		return obj.toByteArray();
 	}
 	
 	public static byte[] tryCompress(byte[] bytes, CompressionEncoding ce) {
@@ -100,23 +342,16 @@ public class Compressor {
 		if ((bytes == null) || (bytes.length == 0)) {
 			return null;
 		}
+		if (ce == CompressionEncoding.NONE) {
+			return bytes;
+		}
 		ByteArrayOutputStream obj = new ByteArrayOutputStream();
-		InputStream in;
-		switch(ce) {
-			case BR:
-				in = new BrotliInputStream(new ByteArrayInputStream(bytes));
-				break;
-			case DEFLATE:
-				in = new DeflaterInputStream(new ByteArrayInputStream(bytes));
-				break;
-			case GZIP:
-				in = new GZIPInputStream(new ByteArrayInputStream(bytes));
-				break;
-			case NONE:
-			default:
-				return bytes;
+		InputStream in = decompressingStream(new ByteArrayInputStream(bytes), ce);
+		try {
+			obj.write(in.readAllBytes());
+		} finally {
+			in.close();
 		}
-		obj.write(in.readAllBytes());
 		obj.flush();
 		obj.close();
 		return obj.toByteArray();
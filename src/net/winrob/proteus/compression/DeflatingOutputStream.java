@@ -0,0 +1,135 @@
+package net.winrob.proteus.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses to the gzip or zlib (deflate) format with a pooled {@link Deflater} and buffer, which are given back to
+ * their pool when the stream is closed. Closing the stream finishes the encoding and closes the wrapped stream.
+ * 
+ * @author Winter Roberts
+ *
+ */
+class DeflatingOutputStream extends OutputStream {
+	
+	// ID1, ID2, CM (deflate), FLG, MTIME (4 bytes), XFL and OS (unknown)
+	static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+	
+	private final OutputStream out;
+	private final boolean gzip;
+	private final CRC32 crc;
+	private Deflater deflater;
+	private byte[] buffer;
+	private boolean closed;
+	
+	/**
+	 * Creates a new compressing stream.
+	 * 
+	 * @param out The stream the compressed bytes are written to.
+	 * @param gzip True for the gzip format, false for the zlib format.
+	 * @param level The level, or {@link CompressionPolicy#DEFAULT_LEVEL} for the default.
+	 * @throws IOException If the gzip header cannot be written.
+	 */
+	DeflatingOutputStream(OutputStream out, boolean gzip, int level) throws IOException {
+		this.out = out;
+		this.gzip = gzip;
+		this.crc = gzip ? new CRC32() : null;
+		this.deflater = CodecPool.deflater(gzip, level);
+		this.buffer = CodecPool.buffer();
+		this.closed = false;
+		if (gzip) {
+			try {
+				out.write(GZIP_HEADER);
+			} catch (IOException e) {
+				release();
+				throw e;
+			}
+		}
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (len == 0) {
+			return;
+		}
+		deflater.setInput(b, off, len);
+		while (!deflater.needsInput()) {
+			deflate();
+		}
+		if (gzip) {
+			crc.update(b, off, len);
+		}
+	}
+	
+	private void deflate() throws IOException {
+		int n = deflater.deflate(buffer, 0, buffer.length);
+		if (n > 0) {
+			out.write(buffer, 0, n);
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * Writes the rest of the compressed bytes (and the gzip trailer) and gives the deflater back to its pool, without
+	 * closing the wrapped stream.
+	 * 
+	 * @throws IOException If the bytes cannot be written.
+	 */
+	public void finish() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflate();
+			}
+			if (gzip) {
+				writeInt((int) crc.getValue());
+				writeInt((int) deflater.getBytesRead());
+			}
+		} finally {
+			release();
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+	
+	// The gzip trailer is little endian.
+	private void writeInt(int value) throws IOException {
+		out.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+	}
+	
+	private void release() {
+		closed = true;
+		if (deflater != null) {
+			CodecPool.release(deflater, gzip);
+			CodecPool.release(buffer);
+			deflater = null;
+			buffer = null;
+		}
+	}
+
+}
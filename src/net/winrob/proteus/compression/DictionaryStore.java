@@ -0,0 +1,134 @@
+package net.winrob.proteus.compression;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the {@link SharedDictionary}s an endpoint has told clients to keep, keyed by the SHA-256 hash of their content,
+ * so a request naming one in its Available-Dictionary header can be answered compressed against it. The store is
+ * bounded by the bytes it holds, the least recently used dictionaries are dropped first, and requests naming them are
+ * answered as if they named none.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class DictionaryStore {
+	
+	// The memory taken by an entry besides its content: the key, the hash, the dictionary and the map entry.
+	private static final int ENTRY_OVERHEAD = 256;
+	
+	// The largest dictionary, so bodies compressed against it in an 8 MB window (the least every decoder accepts) can
+	// refer back to all of it.
+	private static final int MAX_DICTIONARY_SIZE = 1 << 23;
+	
+	private final long capacity;
+	private final int maxEntrySize;
+	private final LinkedHashMap<ByteBuffer, SharedDictionary> entries;
+	private long size;
+	
+	/**
+	 * Creates a new dictionary store.
+	 * 
+	 * @param capacity The number of bytes the store may hold.
+	 */
+	public DictionaryStore(long capacity) {
+		this.capacity = capacity;
+		// a single dictionary may not take more than a quarter of the store, or one large response would empty it
+		this.maxEntrySize = (int) Math.min(MAX_DICTIONARY_SIZE, capacity / 4);
+		this.entries = new LinkedHashMap<>(16, 0.75f, true);
+		this.size = 0;
+	}
+	
+	/**
+	 * @return The largest content which is kept as a dictionary.
+	 */
+	public int getMaxEntrySize() {
+		return maxEntrySize;
+	}
+	
+	/**
+	 * Keeps a response as a dictionary, or returns the dictionary kept for the same content before.
+	 * 
+	 * @param content The content of the response.
+	 * @param length The length of the content.
+	 * @param match The URL pattern of the requests the dictionary is used for.
+	 * @param id The id the client sends back, may be null.
+	 * @return The dictionary, or null if the content is larger than {@link #getMaxEntrySize()}.
+	 */
+	public SharedDictionary put(byte[] content, int length, String match, String id) {
+		if (length > maxEntrySize) {
+			return null;
+		}
+		byte[] hash = CompressionCache.digest(content, length);
+		ByteBuffer key = ByteBuffer.wrap(hash);
+		synchronized (this) {
+			SharedDictionary previous = entries.get(key);
+			if (previous != null) {
+				return previous;
+			}
+		}
+		SharedDictionary dictionary = new SharedDictionary(Arrays.copyOf(content, length), hash, match, id);
+		synchronized (this) {
+			SharedDictionary previous = entries.put(key, dictionary);
+			if (previous != null) {
+				size -= previous.getContent().length + ENTRY_OVERHEAD;
+			}
+			size += length + ENTRY_OVERHEAD;
+			Iterator<Map.Entry<ByteBuffer, SharedDictionary>> iterator = entries.entrySet().iterator();
+			while (size > capacity && iterator.hasNext()) {
+				Map.Entry<ByteBuffer, SharedDictionary> eldest = iterator.next();
+				size -= eldest.getValue().getContent().length + ENTRY_OVERHEAD;
+				iterator.remove();
+			}
+		}
+		return dictionary;
+	}
+	
+	/**
+	 * @param hash The SHA-256 hash of the content.
+	 * @return The dictionary, or null if it is not held.
+	 */
+	public synchronized SharedDictionary get(byte[] hash) {
+		return entries.get(ByteBuffer.wrap(hash));
+	}
+	
+	/**
+	 * Looks up the dictionary named by a request.
+	 * 
+	 * @param availableDictionary The value of the Available-Dictionary header, a structured field byte sequence.
+	 * @return The dictionary, or null if the header is invalid or the dictionary is not held.
+	 */
+	public SharedDictionary find(String availableDictionary) {
+		String value = availableDictionary.trim();
+		if (value.length() < 2 || value.charAt(0) != ':' || value.charAt(value.length() - 1) != ':') {
+			return null;
+		}
+		byte[] hash;
+		try {
+			hash = Base64.getDecoder().decode(value.substring(1, value.length() - 1));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		return hash.length == 32 ? get(hash) : null;
+	}
+	
+	/**
+	 * @return The number of bytes held by the store.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+	
+	/**
+	 * Drops every dictionary.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		size = 0;
+	}
+
+}
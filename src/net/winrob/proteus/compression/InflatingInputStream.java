@@ -0,0 +1,210 @@
+package net.winrob.proteus.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Decompresses the gzip or zlib (deflate) format with a pooled {@link Inflater} and buffer, which are given back to
+ * their pool when the stream is closed. Concatenated gzip members are read as one stream.
+ * 
+ * @author Winter Roberts
+ *
+ */
+class InflatingInputStream extends InputStream {
+	
+	private static final int FHCRC = 2;
+	private static final int FEXTRA = 4;
+	private static final int FNAME = 8;
+	private static final int FCOMMENT = 16;
+	
+	private final InputStream in;
+	private final boolean gzip;
+	private final CRC32 crc;
+	private Inflater inflater;
+	private byte[] buffer;
+	private int position;
+	private int limit;
+	private boolean eof;
+	
+	/**
+	 * Creates a new decompressing stream, reading the gzip header at once.
+	 * 
+	 * @param in The stream the compressed bytes are read from.
+	 * @param gzip True for the gzip format, false for the zlib format.
+	 * @throws IOException If the gzip header is missing or cannot be read.
+	 */
+	InflatingInputStream(InputStream in, boolean gzip) throws IOException {
+		this.in = in;
+		this.gzip = gzip;
+		this.crc = gzip ? new CRC32() : null;
+		this.inflater = CodecPool.inflater(gzip);
+		this.buffer = CodecPool.buffer();
+		this.eof = false;
+		if (gzip) {
+			try {
+				if (!readHeader(true)) {
+					throw new EOFException();
+				}
+			} catch (IOException e) {
+				release();
+				throw e;
+			}
+		}
+	}
+	
+	@Override
+	public int read() throws IOException {
+		byte[] b = new byte[1];
+		return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (inflater == null) {
+			throw new IOException("Stream closed");
+		}
+		if (eof) {
+			return -1;
+		}
+		if (len == 0) {
+			return 0;
+		}
+		while (true) {
+			int n;
+			try {
+				n = inflater.inflate(b, off, len);
+			} catch (DataFormatException e) {
+				throw new ZipException(e.getMessage() != null ? e.getMessage() : "Invalid compressed data");
+			}
+			if (n > 0) {
+				if (gzip) {
+					crc.update(b, off, n);
+				}
+				return n;
+			}
+			if (inflater.finished()) {
+				// the bytes handed to the inflater past the end of the data belong to the trailer (or next member)
+				position = limit - inflater.getRemaining();
+				if (!gzip || !nextMember()) {
+					eof = true;
+					return -1;
+				}
+			} else if (inflater.needsDictionary()) {
+				throw new ZipException("Preset dictionary required");
+			} else if (inflater.needsInput()) {
+				fill();
+				if (position == limit) {
+					throw new EOFException("Unexpected end of compressed stream");
+				}
+				inflater.setInput(buffer, position, limit - position);
+				position = limit;
+			}
+		}
+	}
+	
+	// Checks the trailer of a gzip member and starts the next member, if another follows.
+	private boolean nextMember() throws IOException {
+		long expectedCrc = readInt() & 0xFFFFFFFFL;
+		long expectedSize = readInt() & 0xFFFFFFFFL;
+		if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+			throw new ZipException("Corrupt GZIP trailer");
+		}
+		inflater.reset();
+		crc.reset();
+		return readHeader(false);
+	}
+	
+	// Reads a gzip header, returning false at the end of the input or (after the first member) at trailing bytes.
+	private boolean readHeader(boolean first) throws IOException {
+		fill();
+		if (position == limit) {
+			return false;
+		}
+		if (readByte() != 0x1f || readByte() != 0x8b) {
+			if (first) {
+				throw new ZipException("Not in GZIP format");
+			}
+			return false;
+		}
+		if (readByte() != 8) {
+			throw new ZipException("Unsupported compression method");
+		}
+		int flags = readByte();
+		// MTIME, XFL and OS
+		skip(6);
+		if ((flags & FEXTRA) != 0) {
+			skip(readByte() | readByte() << 8);
+		}
+		if ((flags & FNAME) != 0) {
+			skipString();
+		}
+		if ((flags & FCOMMENT) != 0) {
+			skipString();
+		}
+		if ((flags & FHCRC) != 0) {
+			skip(2);
+		}
+		return true;
+	}
+	
+	private void fill() throws IOException {
+		if (position == limit) {
+			position = 0;
+			limit = Math.max(0, in.read(buffer, 0, buffer.length));
+		}
+	}
+	
+	private int readByte() throws IOException {
+		fill();
+		if (position == limit) {
+			throw new EOFException("Unexpected end of GZIP stream");
+		}
+		return buffer[position++] & 0xFF;
+	}
+	
+	private int readInt() throws IOException {
+		return readByte() | readByte() << 8 | readByte() << 16 | readByte() << 24;
+	}
+	
+	// Skips a zero terminated string, such as the file name.
+	private void skipString() throws IOException {
+		while (readByte() != 0) {
+			// skip
+		}
+	}
+	
+	private void skip(int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			readByte();
+		}
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return eof || inflater == null ? 0 : 1;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			release();
+		} finally {
+			in.close();
+		}
+	}
+	
+	private void release() {
+		if (inflater != null) {
+			CodecPool.release(inflater, gzip);
+			CodecPool.release(buffer);
+			inflater = null;
+			buffer = null;
+		}
+	}
+
+}
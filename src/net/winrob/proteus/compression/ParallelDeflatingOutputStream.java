@@ -0,0 +1,244 @@
+package net.winrob.proteus.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Checksum;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses to the gzip or zlib (deflate) format on several processors at once, as pigz does. The input is split into
+ * blocks which are deflated concurrently on a shared pool, each primed with the end of the block before it, and written
+ * in order as the deflate data of a single member, so any gzip or zlib decoder reads the result. The checksum is taken
+ * on the writing thread while the blocks are deflated.
+ * <p>
+ * The pool is capped at half the processors, so large bodies compressed in parallel leave the rest to the bodies
+ * compressed by the threads serving them, and each stream keeps at most its parallelism in blocks in flight.
+ * 
+ * @author Winter Roberts
+ *
+ */
+class ParallelDeflatingOutputStream extends OutputStream {
+	
+	/**
+	 * The size of the blocks deflated at once.
+	 */
+	static final int BLOCK_SIZE = 131072;
+	
+	/**
+	 * The number of threads compressing blocks, across every stream.
+	 */
+	static final int POOL_SIZE = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+	
+	// each block is deflated with the last 32 KB of the block before it, the largest distance deflate refers back
+	private static final int DICTIONARY_SIZE = 32768;
+	
+	private static final ForkJoinPool POOL = new ForkJoinPool(POOL_SIZE, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+		
+		private final AtomicInteger count = new AtomicInteger();
+		
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("Proteus-Compression-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	
+	}, null, false);
+	
+	private final OutputStream out;
+	private final boolean gzip;
+	private final int level;
+	private final int parallelism;
+	private final Checksum checksum;
+	private final ArrayDeque<ForkJoinTask<byte[]>> blocks;
+	private final LongAdder cpuTime;
+	private byte[] block;
+	private int position;
+	private byte[] dictionary;
+	private long length;
+	private boolean closed;
+	
+	/**
+	 * Creates a new compressing stream.
+	 * 
+	 * @param out The stream the compressed bytes are written to.
+	 * @param gzip True for the gzip format, false for the zlib format.
+	 * @param level The level, or {@link CompressionPolicy#DEFAULT_LEVEL} for the default.
+	 * @param parallelism The most blocks of this stream deflated at once.
+	 * @throws IOException If the header cannot be written.
+	 */
+	ParallelDeflatingOutputStream(OutputStream out, boolean gzip, int level, int parallelism) throws IOException {
+		this.out = out;
+		this.gzip = gzip;
+		this.level = level;
+		this.parallelism = Math.max(1, Math.min(parallelism, POOL_SIZE));
+		this.checksum = gzip ? new CRC32() : new Adler32();
+		this.blocks = new ArrayDeque<>(this.parallelism);
+		this.cpuTime = new LongAdder();
+		this.block = new byte[BLOCK_SIZE];
+		this.position = 0;
+		this.dictionary = null;
+		this.length = 0;
+		this.closed = false;
+		out.write(gzip ? DeflatingOutputStream.GZIP_HEADER : zlibHeader(level));
+	}
+	
+	// CMF (deflate, 32 KB window) and FLG, whose level bits are only a hint and whose check bits make the pair a
+	// multiple of 31.
+	private static byte[] zlibHeader(int level) {
+		int flevel = level < 0 || level == 6 ? 2 : level < 2 ? 0 : level < 6 ? 1 : 3;
+		int header = 0x7800 | flevel << 6;
+		header += (31 - header % 31) % 31;
+		return new byte[] {(byte) (header >> 8), (byte) header};
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] {(byte) b}, 0, 1);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			if (position == BLOCK_SIZE) {
+				submit(false);
+			}
+			int n = Math.min(len, BLOCK_SIZE - position);
+			System.arraycopy(b, off, block, position, n);
+			position += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	// Hands the current block to the pool, then writes the oldest blocks until no more than the parallelism are left.
+	private void submit(boolean last) throws IOException {
+		byte[] input = block;
+		int inputLength = position;
+		byte[] inputDictionary = dictionary;
+		checksum.update(input, 0, inputLength);
+		length += inputLength;
+		blocks.addLast(POOL.submit(() -> deflate(input, inputLength, inputDictionary, last)));
+		if (inputLength >= DICTIONARY_SIZE) {
+			dictionary = Arrays.copyOfRange(input, inputLength - DICTIONARY_SIZE, inputLength);
+		}
+		block = new byte[BLOCK_SIZE];
+		position = 0;
+		while (blocks.size() > (last ? 0 : parallelism - 1)) {
+			writeBlock();
+		}
+	}
+	
+	private void writeBlock() throws IOException {
+		byte[] deflated;
+		try {
+			deflated = blocks.removeFirst().join();
+		} catch (RuntimeException e) {
+			throw new IOException("Block compression failed", e);
+		}
+		out.write(deflated);
+	}
+	
+	// Deflates one block as raw deflate data, ending on a byte boundary (or as the final block) so blocks can be joined.
+	private byte[] deflate(byte[] input, int inputLength, byte[] inputDictionary, boolean last) {
+		long start = CompressionMetrics.cpuTime();
+		Deflater deflater = CodecPool.deflater(true, level);
+		byte[] buffer = CodecPool.buffer();
+		try {
+			ByteArrayOutputStream deflated = new ByteArrayOutputStream(inputLength / 2 + 64);
+			if (inputDictionary != null) {
+				deflater.setDictionary(inputDictionary);
+			}
+			deflater.setInput(input, 0, inputLength);
+			if (last) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					deflated.write(buffer, 0, deflater.deflate(buffer));
+				}
+			} else {
+				// a pooled deflater may first apply its new level, consuming no input
+				int n;
+				do {
+					n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					deflated.write(buffer, 0, n);
+				} while (n == buffer.length || !deflater.needsInput());
+			}
+			return deflated.toByteArray();
+		} finally {
+			CodecPool.release(deflater, true);
+			CodecPool.release(buffer);
+			cpuTime.add(CompressionMetrics.cpuTime() - start);
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		out.flush();
+	}
+	
+	/**
+	 * @return The processor time, in nanoseconds, the pool has spent on this stream's blocks so far.
+	 */
+	long getCpuTime() {
+		return cpuTime.sum();
+	}
+	
+	/**
+	 * Deflates the last block, writes every block left and the trailer, without closing the wrapped stream.
+	 * 
+	 * @throws IOException If the bytes cannot be written.
+	 */
+	public void finish() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			submit(true);
+			if (gzip) {
+				writeIntLE((int) checksum.getValue());
+				writeIntLE((int) length);
+			} else {
+				int adler = (int) checksum.getValue();
+				out.write(new byte[] {(byte) (adler >> 24), (byte) (adler >> 16), (byte) (adler >> 8), (byte) adler});
+			}
+		} finally {
+			// blocks of a stream which failed are not written
+			for (ForkJoinTask<byte[]> task : blocks) {
+				task.cancel(false);
+			}
+			blocks.clear();
+			block = null;
+			dictionary = null;
+		}
+	}
+	
+	@Override
+	public void close() throws IOException {
+		try {
+			finish();
+		} finally {
+			out.close();
+		}
+	}
+	
+	// The gzip trailer is little endian.
+	private void writeIntLE(int value) throws IOException {
+		out.write(new byte[] {(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+	}
+
+}
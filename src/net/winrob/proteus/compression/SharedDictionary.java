@@ -0,0 +1,106 @@
+package net.winrob.proteus.compression;
+
+import java.util.Base64;
+
+/**
+ * A response a client keeps to decompress later responses with (Compression Dictionary Transport, RFC 9842), such as
+ * the previous version of a script. It is identified by the SHA-256 hash of its content, which the client sends back
+ * in the Available-Dictionary header.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class SharedDictionary {
+	
+	private final byte[] content;
+	private final byte[] hash;
+	private final String match;
+	private final String id;
+	
+	SharedDictionary(byte[] content, byte[] hash, String match, String id) {
+		this.content = content;
+		this.hash = hash;
+		this.match = match;
+		this.id = id;
+	}
+	
+	/**
+	 * @return The content of the dictionary, which is shared and must not be modified.
+	 */
+	public byte[] getContent() {
+		return content;
+	}
+	
+	/**
+	 * @return The SHA-256 hash of the content, which is shared and must not be modified.
+	 */
+	public byte[] getHash() {
+		return hash;
+	}
+	
+	/**
+	 * @return The hash as a structured field byte sequence, the form of the Available-Dictionary header.
+	 */
+	public String getHashField() {
+		return ":" + Base64.getEncoder().encodeToString(hash) + ":";
+	}
+	
+	/**
+	 * @return The URL pattern of the requests the dictionary is used for.
+	 */
+	public String getMatch() {
+		return match;
+	}
+	
+	/**
+	 * @return The id the client sends back in the Dictionary-ID header, or null if there is none.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Checks if the dictionary is used for a request. Only the path of the pattern is compared, where * matches any run
+	 * of characters (the wildcard of a URL pattern), and the query string of the request is ignored.
+	 * 
+	 * @param path The path of the request.
+	 * @return True if the path matches the pattern.
+	 */
+	public boolean matches(String path) {
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		String pattern = match;
+		// an absolute pattern is compared from the path after its host
+		int scheme = pattern.indexOf("://");
+		if (scheme >= 0) {
+			int start = pattern.indexOf('/', scheme + 3);
+			pattern = start >= 0 ? pattern.substring(start) : "/";
+		}
+		// each * is matched as short as possible, and grown when the rest of the pattern does not match
+		int p = 0;
+		int s = 0;
+		int star = -1;
+		int mark = 0;
+		while (s < path.length()) {
+			if (p < pattern.length() && pattern.charAt(p) == '*') {
+				star = p++;
+				mark = s;
+			} else if (p < pattern.length() && pattern.charAt(p) == path.charAt(s)) {
+				p++;
+				s++;
+			} else if (star >= 0) {
+				p = star + 1;
+				s = ++mark;
+			} else {
+				return false;
+			}
+		}
+		while (p < pattern.length() && pattern.charAt(p) == '*') {
+			p++;
+		}
+		return p == pattern.length();
+	}
+
+}
@@ -0,0 +1,186 @@
+package net.winrob.proteus.compression;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import com.github.luben.zstd.util.Native;
+
+/**
+ * The Zstandard (zstd) coding, through zstd-jni, with an optional trained dictionary. It is matched by its token rather
+ * than by a constant of its own, so any {@link CompressionEncoding} named zstd is encoded with it.
+ * 
+ * @author Winter Roberts
+ *
+ */
+class ZstdCodec {
+	
+	/**
+	 * The content coding token.
+	 */
+	static final String NAME = "zstd";
+	
+	// zstd's own default, about the ratio of gzip at a fraction of the time
+	private static final int DEFAULT_LEVEL = 3;
+	
+	// higher levels use windows over the 8 MB HTTP decoders are required to accept (RFC 9659)
+	private static final int MAX_LEVEL = 19;
+	
+	// magic number, frame header descriptor, window descriptor, dictionary ID and content size
+	private static final int MAX_HEADER_SIZE = 18;
+	
+	// the windows of bodies compressed against a shared dictionary, from 8 MB to the 128 MB no decoder need exceed
+	private static final int MIN_DICTIONARY_WINDOW_LOG = 23;
+	private static final int MAX_DICTIONARY_WINDOW_LOG = 27;
+	
+	private static volatile Dictionary dictionary = null;
+	private static volatile Boolean available = null;
+	
+	private ZstdCodec() {
+	
+	}
+	
+	static boolean isZstd(CompressionEncoding ce) {
+		return NAME.equalsIgnoreCase(ce.getName());
+	}
+	
+	/**
+	 * @return True if zstd-jni is on the class path and its native library could be loaded.
+	 */
+	static boolean isAvailable() {
+		if (available == null) {
+			try {
+				Native.load();
+				available = true;
+			} catch (LinkageError | SecurityException e) {
+				// NoClassDefFoundError without the jar, UnsatisfiedLinkError without a library for the platform
+				available = false;
+			}
+		}
+		return available;
+	}
+	
+	/**
+	 * Sets the dictionary bodies are compressed with, and frames which name it are decompressed with.
+	 * 
+	 * @param bytes The dictionary, as made by {@link #train(List, int)}, or null for none.
+	 */
+	static void setDictionary(byte[] bytes) {
+		if (bytes == null) {
+			dictionary = null;
+			return;
+		}
+		long id = Zstd.getDictIdFromDict(bytes);
+		if (id == 0) {
+			throw new IllegalArgumentException("Not a trained zstd dictionary");
+		}
+		dictionary = new Dictionary(bytes, id);
+	}
+	
+	/**
+	 * Trains a dictionary on samples of the bodies it will compress, such as typical responses of an API.
+	 * 
+	 * @param samples The samples.
+	 * @param size The size of the dictionary, commonly about 100 KB.
+	 * @return The dictionary.
+	 */
+	static byte[] train(List<byte[]> samples, int size) {
+		int total = 0;
+		for (byte[] sample : samples) {
+			total += sample.length;
+		}
+		ZstdDictTrainer trainer = new ZstdDictTrainer(total, size);
+		for (byte[] sample : samples) {
+			trainer.addSample(sample);
+		}
+		return trainer.trainSamples();
+	}
+	
+	static OutputStream compressingStream(OutputStream out, int level) throws IOException {
+		int zstdLevel = level >= 0 ? Math.min(level, MAX_LEVEL) : DEFAULT_LEVEL;
+		ZstdOutputStream zstd = new ZstdOutputStream(out, zstdLevel);
+		Dictionary dictionary = ZstdCodec.dictionary;
+		if (dictionary != null) {
+			zstd.setDict(dictionary.forLevel(zstdLevel));
+		}
+		return zstd;
+	}
+	
+	/**
+	 * Wraps a stream so bytes written to it are compressed against the content of a shared dictionary, used as a raw
+	 * prefix the compressed body refers back into.
+	 * 
+	 * @param out The stream the encoded bytes are written to.
+	 * @param dictionary The content of the dictionary.
+	 * @param level The level, or {@link CompressionPolicy#DEFAULT_LEVEL} for the default.
+	 * @return The compressing stream.
+	 * @throws IOException If the encoder cannot be created.
+	 */
+	static OutputStream compressingStream(OutputStream out, byte[] dictionary, int level) throws IOException {
+		int zstdLevel = level >= 0 ? Math.min(level, MAX_LEVEL) : DEFAULT_LEVEL;
+		ZstdOutputStream zstd = new ZstdOutputStream(out, zstdLevel);
+		// decoders need not accept a window over 8 MB or 1.25 times the dictionary, whichever is larger (RFC 9842), so
+		// the window is the largest power of two within that (all of a dictionary of up to 8 MB)
+		long window = Math.max(1L << MIN_DICTIONARY_WINDOW_LOG, dictionary.length * 5L / 4);
+		int windowLog = MIN_DICTIONARY_WINDOW_LOG;
+		while (windowLog < MAX_DICTIONARY_WINDOW_LOG && 1L << (windowLog + 1) <= window) {
+			windowLog++;
+		}
+		zstd.setLong(windowLog);
+		zstd.setDict(dictionary);
+		return zstd;
+	}
+	
+	static InputStream decompressingStream(InputStream in) throws IOException {
+		Dictionary dictionary = ZstdCodec.dictionary;
+		if (dictionary == null) {
+			return new ZstdInputStream(in);
+		}
+		// a frame only names a dictionary when it was compressed with one, others are read without it
+		BufferedInputStream buffered = new BufferedInputStream(in);
+		buffered.mark(MAX_HEADER_SIZE);
+		byte[] header = buffered.readNBytes(MAX_HEADER_SIZE);
+		buffered.reset();
+		ZstdInputStream zstd = new ZstdInputStream(buffered);
+		long id = Zstd.getDictIdFromFrame(header);
+		if (id == dictionary.id) {
+			zstd.setDict(dictionary.decompress);
+		} else if (id != 0) {
+			zstd.close();
+			throw new IOException("Unknown zstd dictionary: " + id);
+		}
+		return zstd;
+	}
+	
+	private static class Dictionary {
+		
+		private final byte[] bytes;
+		private final long id;
+		private final ZstdDictDecompress decompress;
+		// digesting the dictionary for a level is costly, so it is done once per level
+		private final ConcurrentMap<Integer, ZstdDictCompress> compress;
+		
+		public Dictionary(byte[] bytes, long id) {
+			this.bytes = bytes.clone();
+			this.id = id;
+			this.decompress = new ZstdDictDecompress(this.bytes);
+			this.compress = new ConcurrentHashMap<>();
+		}
+		
+		public ZstdDictCompress forLevel(int level) {
+			return compress.computeIfAbsent(level, l -> new ZstdDictCompress(bytes, l));
+		}
+	
+	}
+
+}
@@ -0,0 +1,118 @@
+package net.winrob.proteus.http;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.winrob.proteus.compression.CompressionEncoding;
+import net.winrob.proteus.compression.Compressor;
+
+/**
+ * Chooses the content coding of a response from an Accept-Encoding header, by the q-values the client gives each coding
+ * and, between codings it values equally, by the server's preference.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class AcceptEncoding {
+	
+	// The server's preference, best first: zstd compresses about as well as Brotli for much less time. Codings not
+	// among the encodings (or without their library) are left out.
+	private static final String[] PREFERENCE = {"zstd", "br", "gzip", "deflate"};
+	
+	private static final List<CompressionEncoding> PREFERRED = new ArrayList<>();
+	
+	static {
+		for (String name : PREFERENCE) {
+			CompressionEncoding ce = CompressionEncoding.forName(name);
+			if (ce != CompressionEncoding.NONE && Compressor.isAvailable(ce)) {
+				PREFERRED.add(ce);
+			}
+		}
+	}
+	
+	private AcceptEncoding() {
+	
+	}
+	
+	/**
+	 * Negotiates the coding of a response. A coding is acceptable if the client lists it (or *) with a q-value above
+	 * zero. If the client rates identity above every acceptable coding, the response is not compressed.
+	 * 
+	 * @param header The value of the Accept-Encoding header, may be null.
+	 * @return The coding, or {@link CompressionEncoding#NONE} if none is acceptable.
+	 */
+	public static CompressionEncoding negotiate(String header) {
+		if (header == null || header.isBlank()) {
+			return CompressionEncoding.NONE;
+		}
+		Map<String, Double> qualities = parse(header);
+		Double any = qualities.get("*");
+		CompressionEncoding best = CompressionEncoding.NONE;
+		double bestQuality = 0;
+		for (CompressionEncoding ce : PREFERRED) {
+			Double quality = qualities.get(ce.getName());
+			if (quality == null && ce == CompressionEncoding.GZIP) {
+				quality = qualities.get("x-gzip");
+			}
+			if (quality == null) {
+				quality = any;
+			}
+			// equal q-values keep the coding the server prefers
+			if (quality != null && quality > bestQuality) {
+				best = ce;
+				bestQuality = quality;
+			}
+		}
+		Double identity = qualities.get("identity");
+		if (identity != null && identity > bestQuality) {
+			return CompressionEncoding.NONE;
+		}
+		return best;
+	}
+	
+	/**
+	 * Checks if a client lists a coding by name with a q-value above zero, as clients list the dictionary codings (dcb
+	 * and dcz) they accept.
+	 * 
+	 * @param header The value of the Accept-Encoding header, may be null.
+	 * @param coding The name of the coding.
+	 * @return True if the coding is acceptable.
+	 */
+	public static boolean accepts(String header, String coding) {
+		if (header == null) {
+			return false;
+		}
+		Double quality = parse(header).get(coding.toLowerCase());
+		return quality != null && quality > 0;
+	}
+	
+	// The q-value of each listed coding, by its lower case name. Elements with an invalid q-value are ignored.
+	private static Map<String, Double> parse(String header) {
+		Map<String, Double> qualities = new HashMap<>();
+		for (String element : header.split(",")) {
+			int semicolon = element.indexOf(';');
+			String coding = (semicolon < 0 ? element : element.substring(0, semicolon)).trim().toLowerCase();
+			if (coding.isEmpty()) continue;
+			double quality = 1;
+			if (semicolon >= 0) {
+				for (String param : element.substring(semicolon + 1).split(";")) {
+					int equals = param.indexOf('=');
+					if (equals > 0 && param.substring(0, equals).trim().equalsIgnoreCase("q")) {
+						try {
+							quality = Double.parseDouble(param.substring(equals + 1).trim());
+						} catch (NumberFormatException e) {
+							quality = -1;
+						}
+					}
+				}
+			}
+			if (quality < 0 || quality > 1) continue;
+			// a coding listed twice keeps its first q-value
+			qualities.putIfAbsent(coding, quality);
+		}
+		return qualities;
+	}
+
+}
@@ -0,0 +1,99 @@
+package net.winrob.proteus.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A view of a request body with a known length (its Content-Length) in the connection input, which ends with the body
+ * and leaves the connection open when closed, so the next request can be read after it.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class BodyInputStream extends InputStream {
+	
+	private final InputStream in;
+	private long remaining;
+	
+	/**
+	 * Creates a new view of a body.
+	 * 
+	 * @param in The connection input, positioned at the start of the body.
+	 * @param length The length of the body.
+	 */
+	public BodyInputStream(InputStream in, long length) {
+		this.in = in;
+		this.remaining = length;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Stream ended within request body");
+		}
+		remaining--;
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining <= 0) {
+			return -1;
+		}
+		if (len == 0) {
+			return 0;
+		}
+		int n = in.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0) {
+			throw new EOFException("Stream ended within request body");
+		}
+		remaining -= n;
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining));
+		remaining -= skipped;
+		return skipped;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+	
+	/**
+	 * @return The number of bytes of the body not read yet.
+	 */
+	public long getRemaining() {
+		return remaining;
+	}
+	
+	/**
+	 * Reads past the rest of the body.
+	 * 
+	 * @throws IOException If the connection ends within the body.
+	 */
+	public void discard() throws IOException {
+		while (remaining > 0) {
+			if (skip(remaining) <= 0 && read() < 0) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Ends the view without closing the connection input. The rest of the body is not read.
+	 */
+	@Override
+	public void close() {
+		// the connection stays open for the next request
+	}
+
+}
@@ -0,0 +1,111 @@
+package net.winrob.proteus.http;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Parses the byte ranges of a Range header against the length of a representation.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ByteRanges {
+	
+	// More ranges than this are not worth the parts they would be sent in, the whole representation is sent instead.
+	private static final int MAX_RANGES = 16;
+	
+	private ByteRanges() {
+	
+	}
+	
+	/**
+	 * Parses a Range header. Each range is returned as a pair of the first and last (inclusive) byte positions, clipped
+	 * to the length of the representation. Ranges which overlap or touch are merged, so no byte is sent twice, and
+	 * the ranges are returned in ascending order.
+	 * 
+	 * @param header The value of the Range header.
+	 * @param length The length of the representation.
+	 * @return The satisfiable ranges, which are empty if no range can be satisfied, or null if the header is invalid
+	 * (or asks for too many ranges) and should be ignored.
+	 */
+	public static List<long[]> parse(String header, long length) {
+		String value = header.trim();
+		if (!value.regionMatches(true, 0, "bytes=", 0, 6)) {
+			return null;
+		}
+		List<long[]> ranges = new ArrayList<>(1);
+		int count = 0;
+		for (String spec : value.substring(6).split(",")) {
+			spec = spec.trim();
+			if (spec.isEmpty()) continue;
+			if (++count > MAX_RANGES) return null;
+			int dash = spec.indexOf('-');
+			if (dash < 0) return null;
+			try {
+				long first;
+				long last;
+				if (dash == 0) {
+					// a suffix range, the last n bytes
+					long suffix = Long.parseLong(spec.substring(1));
+					if (suffix <= 0) continue;
+					first = Math.max(0, length - suffix);
+					last = length - 1;
+				} else {
+					first = Long.parseLong(spec.substring(0, dash).trim());
+					String end = spec.substring(dash + 1).trim();
+					if (end.isEmpty()) {
+						last = length - 1;
+					} else {
+						long requested = Long.parseLong(end);
+						if (requested < first) return null;
+						last = Math.min(length - 1, requested);
+					}
+				}
+				if (first < length) {
+					ranges.add(new long[] {first, last});
+				}
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		if (count == 0) {
+			return null;
+		}
+		return merge(ranges);
+	}
+	
+	// Sorts the ranges and merges those which overlap or touch.
+	private static List<long[]> merge(List<long[]> ranges) {
+		if (ranges.size() < 2) {
+			return ranges;
+		}
+		ranges.sort(Comparator.comparingLong(range -> range[0]));
+		List<long[]> merged = new ArrayList<>(ranges.size());
+		long[] current = ranges.get(0);
+		for (int i = 1; i < ranges.size(); i++) {
+			long[] range = ranges.get(i);
+			if (range[0] <= current[1] + 1) {
+				current[1] = Math.max(current[1], range[1]);
+			} else {
+				merged.add(current);
+				current = range;
+			}
+		}
+		merged.add(current);
+		return merged;
+	}
+	
+	/**
+	 * @param ranges The ranges.
+	 * @return The number of bytes covered by the ranges.
+	 */
+	public static long size(List<long[]> ranges) {
+		long size = 0;
+		for (long[] range : ranges) {
+			size += range[1] - range[0] + 1;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,157 @@
+package net.winrob.proteus.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a request body sent with the chunked transfer coding as it arrives, a chunk at a time, ending after the last
+ * chunk and its trailer section. Closing the stream leaves the connection open.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ChunkedInputStream extends InputStream {
+	
+	// The longest chunk size line or trailer field read, and the most trailer fields, so a client cannot hold the
+	// connection's memory with a line which never ends.
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final int MAX_TRAILER_FIELDS = 100;
+	
+	private final ConnectionReader in;
+	private long chunkRemaining;
+	private boolean inChunk;
+	private boolean eof;
+	
+	/**
+	 * Creates a new chunked stream.
+	 * 
+	 * @param in The connection input, positioned at the first chunk size line.
+	 */
+	public ChunkedInputStream(ConnectionReader in) {
+		this.in = in;
+		this.chunkRemaining = 0;
+		this.inChunk = false;
+		this.eof = false;
+	}
+	
+	/**
+	 * Checks if a body is framed by the chunked transfer coding, which must be the last coding applied to it. The end
+	 * of a body with any other last transfer coding is only known when the connection is closed.
+	 * 
+	 * @param transferEncoding The value of the Transfer-Encoding header.
+	 * @return True if the last coding is chunked.
+	 */
+	public static boolean isChunked(String transferEncoding) {
+		String last = transferEncoding.substring(transferEncoding.lastIndexOf(',') + 1);
+		int parameters = last.indexOf(';');
+		return (parameters < 0 ? last : last.substring(0, parameters)).trim().equalsIgnoreCase("chunked");
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (!nextChunk()) {
+			return -1;
+		}
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException("Stream ended within chunk");
+		}
+		chunkRemaining--;
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!nextChunk()) {
+			return -1;
+		}
+		int n = in.read(b, off, (int) Math.min(len, chunkRemaining));
+		if (n < 0) {
+			throw new EOFException("Stream ended within chunk");
+		}
+		chunkRemaining -= n;
+		return n;
+	}
+	
+	// Moves to the next chunk once the current one is read, returning false after the last chunk.
+	private boolean nextChunk() throws IOException {
+		if (eof) {
+			return false;
+		}
+		if (chunkRemaining > 0) {
+			return true;
+		}
+		if (inChunk) {
+			// the data of each chunk is followed by a line break
+			if (!in.readLine(true, MAX_LINE_LENGTH).isEmpty()) {
+				throw new IOException("Missing line break after chunk");
+			}
+			inChunk = false;
+		}
+		String line = in.readLine(true, MAX_LINE_LENGTH);
+		// chunk extensions after ';' are ignored
+		int extension = line.indexOf(';');
+		String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+		chunkRemaining = chunkSize(size);
+		if (chunkRemaining == 0) {
+			// the trailer section ends with an empty line, trailer fields are not used
+			int fields = 0;
+			while (!in.readLine(true, MAX_LINE_LENGTH).isEmpty()) {
+				if (++fields > MAX_TRAILER_FIELDS) {
+					throw new IOException("Too many trailer fields");
+				}
+			}
+			eof = true;
+			return false;
+		}
+		inChunk = true;
+		return true;
+	}
+	
+	// A chunk size is ASCII hex digits only, Long.parseLong would also take a sign or other scripts' digits.
+	private static long chunkSize(String size) throws IOException {
+		if (size.isEmpty() || size.length() > 15) {
+			throw new IOException("Invalid chunk size: " + size);
+		}
+		for (int i = 0; i < size.length(); i++) {
+			char c = size.charAt(i);
+			if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+				throw new IOException("Invalid chunk size: " + size);
+			}
+		}
+		return Long.parseLong(size, 16);
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return eof ? 0 : (int) Math.min(in.buffered(), chunkRemaining);
+	}
+	
+	/**
+	 * Reads past the rest of the body, including the trailer section.
+	 * 
+	 * @throws IOException If the connection ends within the body.
+	 */
+	public void discard() throws IOException {
+		while (nextChunk()) {
+			long skipped = in.skip(chunkRemaining);
+			if (skipped <= 0) {
+				throw new EOFException("Stream ended within chunk");
+			}
+			chunkRemaining -= skipped;
+		}
+	}
+	
+	/**
+	 * Ends the stream without closing the connection input. The rest of the body is not read.
+	 */
+	@Override
+	public void close() {
+		// the connection stays open for the next request
+	}
+
+}
@@ -0,0 +1,189 @@
+package net.winrob.proteus.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes a response body with the chunked transfer coding through a fixed size buffer, so a body of any length is
+ * sent as it is produced. Closing the stream ends the body (with the last chunk) but leaves the connection open.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ChunkedOutputStream extends OutputStream {
+	
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+	
+	// Room before the data for the chunk size line, at most 8 hex digits and a CRLF.
+	private static final int SIZE_LINE = 10;
+	
+	private final OutputStream out;
+	private final byte[] buffer;
+	private final int dataStart;
+	private final int chunkSize;
+	private int count;
+	private long length;
+	private boolean closed;
+	
+	private byte[] prefix;
+	private int prefixLength;
+	
+	/**
+	 * Creates a new chunked stream.
+	 * 
+	 * @param out The connection output the chunks are written to.
+	 * @param chunkSize The size of the buffer, which is the largest chunk written.
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize) {
+		this(out, chunkSize, null, 0);
+	}
+	
+	/**
+	 * Creates a new chunked stream which writes bytes (the response head) ahead of the first chunk, in the same write.
+	 * 
+	 * @param out The connection output the chunks are written to.
+	 * @param chunkSize The size of the buffer, which is the largest chunk written.
+	 * @param prefix The bytes to be written before the first chunk, may be null.
+	 * @param prefixLength The number of bytes of the prefix.
+	 */
+	public ChunkedOutputStream(OutputStream out, int chunkSize, byte[] prefix, int prefixLength) {
+		this.out = out;
+		this.chunkSize = chunkSize;
+		this.prefix = prefix;
+		this.prefixLength = prefix != null ? prefixLength : 0;
+		// each chunk is laid out as [prefix][size line][data][CRLF] so it is written with a single write
+		this.dataStart = this.prefixLength + SIZE_LINE;
+		this.buffer = new byte[dataStart + chunkSize + 2];
+		this.count = 0;
+		this.closed = false;
+	}
+	
+	@Override
+	public void write(int b) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		if (count == chunkSize) {
+			writeChunk();
+		}
+		buffer[dataStart + count++] = (byte) b;
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (len > 0) {
+			if (count == 0 && len >= chunkSize && prefix == null) {
+				// large writes are sent as their own chunk rather than copied through the buffer
+				writeSizeLine(len);
+				out.write(b, off, len);
+				out.write(CRLF);
+				length += len;
+				return;
+			}
+			int n = Math.min(len, chunkSize - count);
+			System.arraycopy(b, off, buffer, dataStart + count, n);
+			count += n;
+			off += n;
+			len -= n;
+			if (count == chunkSize) {
+				writeChunk();
+			}
+		}
+	}
+	
+	// Writes the buffered chunk (and the prefix ahead of the first one) with one write.
+	private void writeChunk() throws IOException {
+		int start = dataStart;
+		buffer[--start] = '\n';
+		buffer[--start] = '\r';
+		int digits = count;
+		do {
+			buffer[--start] = HEX[digits & 0xF];
+			digits >>>= 4;
+		} while (digits != 0);
+		if (prefix != null) {
+			start -= prefixLength;
+			System.arraycopy(prefix, 0, buffer, start, prefixLength);
+			prefix = null;
+		}
+		int end = dataStart + count;
+		buffer[end] = '\r';
+		buffer[end + 1] = '\n';
+		out.write(buffer, start, end + 2 - start);
+		length += count;
+		count = 0;
+	}
+	
+	// Writes the size line of a chunk written straight from the caller's array.
+	private void writeSizeLine(int size) throws IOException {
+		byte[] line = new byte[SIZE_LINE];
+		int start = SIZE_LINE;
+		line[--start] = '\n';
+		line[--start] = '\r';
+		do {
+			line[--start] = HEX[size & 0xF];
+			size >>>= 4;
+		} while (size != 0);
+		out.write(line, start, SIZE_LINE - start);
+	}
+	
+	/**
+	 * @return The number of body bytes written, not counting those still buffered or the chunk framing.
+	 */
+	public long getLength() {
+		return length;
+	}
+	
+	/**
+	 * Writes any buffered bytes as a chunk and flushes the connection output.
+	 */
+	@Override
+	public void flush() throws IOException {
+		if (count > 0 || prefix != null) {
+			flushPending();
+		}
+		out.flush();
+	}
+	
+	/**
+	 * Writes any buffered bytes and the last chunk, ending the body. The connection output is not closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (!closed) {
+			closed = true;
+			if (count > 0 || prefix != null) {
+				flushPending();
+			}
+			out.write(LAST_CHUNK);
+		}
+	}
+	
+	/**
+	 * Abandons the body after a failure part way through it. Buffered bytes are dropped and the last chunk is never
+	 * written, so once the connection is closed the client sees the body was cut short rather than a complete one.
+	 * Later writes fail and closing the stream does nothing.
+	 */
+	public void abort() {
+		closed = true;
+		count = 0;
+		prefix = null;
+	}
+	
+	private void flushPending() throws IOException {
+		if (count > 0) {
+			writeChunk();
+		} else {
+			// nothing has been written yet, only the prefix
+			out.write(prefix, 0, prefixLength);
+			prefix = null;
+		}
+	}
+
+}
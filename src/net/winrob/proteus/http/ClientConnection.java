@@ -0,0 +1,470 @@
+package net.winrob.proteus.http;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLSocket;
+
+import net.winrob.proteus.routing.CompositeRouter;
+
+/**
+ * Holds the state of a single HTTP/1.1 client connection across every request made on it, so the same handler
+ * thread and socket streams can serve the whole keep-alive lifetime of the connection.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ClientConnection {
+	
+	private enum State {
+		PENDING, RESUMED, FINISHED, DETACHED
+	}
+	
+	private static final int WRITE_BUFFER_SIZE = 8192;
+	private static final int FILE_BUFFER_SIZE = 262144;
+	
+	private final Socket client;
+	private final CompositeRouter router;
+	
+	private final ConnectionReader reader;
+	private final ConnectionOutputStream outputStream;
+	
+	private final int keepAliveTimeout;
+	private final int keepAliveMax;
+	private int handlerTimeout;
+	
+	private int requests;
+	private long requestStarted;
+	private long responseWritten;
+	private State state;
+	// a lock rather than the monitor, a virtual thread waiting on a monitor would pin its carrier thread
+	private final ReentrantLock lock;
+	private final Condition stateChanged;
+	
+	private int maxHeadSize;
+	private RequestHeadParser headParser;
+	// the buffer files are copied through where they cannot be transferred, reused across the connection's responses
+	private ByteBuffer fileBuffer;
+	private int pipelineDepth;
+	
+	/**
+	 * Creates a new connection wrapper for the given socket.
+	 * 
+	 * @param client The client socket.
+	 * @param router The {@link CompositeRouter} of the endpoint which accepted the socket.
+	 * @param keepAliveTimeout The time, in milliseconds, an idle connection is kept open.
+	 * @param keepAliveMax The maximum number of requests served on this connection.
+	 * @throws IOException If the socket streams cannot be opened.
+	 */
+	public ClientConnection(Socket client, CompositeRouter router, int keepAliveTimeout, int keepAliveMax) throws IOException {
+		this(client, router, client.getInputStream(), client.getOutputStream(), keepAliveTimeout, keepAliveMax);
+	}
+	
+	/**
+	 * Creates a new connection wrapper which reads and writes through the given streams rather than the socket's own.
+	 * 
+	 * @param client The client socket.
+	 * @param router The {@link CompositeRouter} of the endpoint which accepted the socket.
+	 * @param inputStream The stream requests are read from, which is buffered unless it is a {@link ConnectionReader}.
+	 * @param outputStream The stream responses are written to.
+	 * @param keepAliveTimeout The time, in milliseconds, an idle connection is kept open.
+	 * @param keepAliveMax The maximum number of requests served on this connection.
+	 * @throws IOException If the socket timeout cannot be set.
+	 */
+	public ClientConnection(Socket client, CompositeRouter router, InputStream inputStream, OutputStream outputStream, int keepAliveTimeout, int keepAliveMax) throws IOException {
+		this.client = client;
+		this.router = router;
+		this.reader = inputStream != null ? ConnectionReader.of(inputStream) : null;
+		this.outputStream = outputStream != null ? new ConnectionOutputStream(new BufferedOutputStream(outputStream, WRITE_BUFFER_SIZE)) : null;
+		if (reader != null && this.outputStream != null) {
+			// held back responses are written before waiting on the client for more bytes
+			reader.setFlushOnRead(this::flush);
+		}
+		this.keepAliveTimeout = keepAliveTimeout;
+		this.keepAliveMax = keepAliveMax;
+		requests = 0;
+		requestStarted = System.currentTimeMillis();
+		responseWritten = 0;
+		state = State.PENDING;
+		lock = new ReentrantLock();
+		stateChanged = lock.newCondition();
+		maxHeadSize = 16384;
+		pipelineDepth = 1;
+		handlerTimeout = 0;
+		client.setSoTimeout(keepAliveTimeout);
+	}
+	
+	public Socket getClient() {
+		return client;
+	}
+	
+	public CompositeRouter getRouter() {
+		return router;
+	}
+	
+	public InputStream getInputStream() {
+		return reader;
+	}
+	
+	/**
+	 * @return The buffered reader over this connection, which every read from the connection should go through.
+	 */
+	public ConnectionReader getReader() {
+		return reader;
+	}
+	
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+	
+	/**
+	 * Sets the largest request head, in bytes, which will be read from this connection.
+	 * 
+	 * @param maxHeadSize The maximum size of a request line and its headers.
+	 */
+	public void setMaxHeadSize(int maxHeadSize) {
+		this.maxHeadSize = maxHeadSize;
+	}
+	
+	/**
+	 * Sets how long a request may go without its response being written before the connection is ended.
+	 * 
+	 * @param handlerTimeout The time in milliseconds, 0 waits for the handler however long it takes.
+	 */
+	public void setHandlerTimeout(int handlerTimeout) {
+		this.handlerTimeout = Math.max(0, handlerTimeout);
+	}
+	
+	/**
+	 * Sets the largest number of responses to pipelined requests held back to be written to the client together.
+	 * 
+	 * @param pipelineDepth The maximum number of held back responses, 1 writes every response as it is flushed.
+	 */
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+	}
+	
+	/**
+	 * @return The largest number of responses to pipelined requests held back to be written together.
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+	
+	/**
+	 * @return True if (part of) the next request has already been received, so a response flushed now may be held back
+	 * and written together with the responses which follow it.
+	 */
+	protected boolean hasPipelinedRequest() {
+		return reader != null && reader.buffered() > 0;
+	}
+	
+	/**
+	 * Writes all buffered response bytes to the client, including responses held back for pipelined requests.
+	 * 
+	 * @throws IOException If the bytes cannot be written.
+	 */
+	public void flush() throws IOException {
+		if (outputStream != null) {
+			outputStream.flushHeld();
+		}
+	}
+	
+	/**
+	 * Writes a response head and body. Responses small enough for the connection buffer are buffered together, larger
+	 * ones are written to cleartext sockets backed by a channel with a single gathering write.
+	 * 
+	 * @param head The buffer holding the head.
+	 * @param headLength The length of the head.
+	 * @param body The buffer holding the body, which must not be modified afterwards.
+	 * @param offset The position of the body in its buffer.
+	 * @param length The length of the body.
+	 * @throws IOException If the bytes cannot be written.
+	 */
+	public void writeResponse(byte[] head, int headLength, byte[] body, int offset, int length) throws IOException {
+		SocketChannel channel = client.getChannel();
+		if (headLength + length > WRITE_BUFFER_SIZE && channel != null && channel.isBlocking() && !(client instanceof SSLSocket)) {
+			flush();
+			ByteBuffer[] buffers = new ByteBuffer[] {ByteBuffer.wrap(head, 0, headLength), ByteBuffer.wrap(body, offset, length)};
+			while (buffers[1].hasRemaining()) {
+				channel.write(buffers);
+			}
+			return;
+		}
+		outputStream.write(head, 0, headLength);
+		outputStream.write(body, offset, length);
+	}
+	
+	/**
+	 * Writes a region of a file to the client after everything written so far. Cleartext sockets backed by a channel
+	 * are written with {@link FileChannel#transferTo}, so the file is sent by the kernel without being copied through
+	 * the heap. Other sockets (TLS) are written from large positional reads.
+	 * 
+	 * @param file The file to be written.
+	 * @param position The position of the first byte to be written.
+	 * @param count The number of bytes to be written.
+	 * @throws IOException If the file cannot be read (or is shorter than the region), or the bytes cannot be written.
+	 */
+	public void writeFile(FileChannel file, long position, long count) throws IOException {
+		flush();
+		SocketChannel channel = client.getChannel();
+		if (channel != null && channel.isBlocking() && !(client instanceof SSLSocket)) {
+			while (count > 0) {
+				long written = file.transferTo(position, count, channel);
+				if (written <= 0) throw new EOFException();
+				position += written;
+				count -= written;
+			}
+			return;
+		}
+		int size = (int) Math.min(count, FILE_BUFFER_SIZE);
+		if (fileBuffer == null || fileBuffer.capacity() < size) {
+			fileBuffer = ByteBuffer.allocate(size);
+		}
+		ByteBuffer buffer = fileBuffer;
+		while (count > 0) {
+			buffer.clear().limit((int) Math.min(count, buffer.capacity()));
+			int read = file.read(buffer, position);
+			if (read < 0) throw new EOFException();
+			// writes larger than the connection buffer go straight to the socket
+			outputStream.write(buffer.array(), 0, read);
+			position += read;
+			count -= read;
+		}
+		outputStream.flushHeld();
+	}
+	
+	/**
+	 * @return The parser which reads request heads from this connection, reused across its requests.
+	 */
+	public RequestHeadParser getHeadParser() {
+		if (headParser == null) {
+			headParser = new RequestHeadParser(maxHeadSize);
+		}
+		return headParser;
+	}
+	
+	/**
+	 * @return The idle timeout of this connection in milliseconds.
+	 */
+	public int getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+	
+	/**
+	 * Marks the start of a new request on this connection.
+	 */
+	public void requestStarted() {
+		lock.lock();
+		try {
+			requests++;
+			requestStarted = System.currentTimeMillis();
+			responseWritten = 0;
+			state = State.PENDING;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return The number of requests which may still be made after the current one.
+	 */
+	public int getRemainingRequests() {
+		lock.lock();
+		try {
+			return Math.max(0, keepAliveMax - requests);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return True if the connection may be kept open after the current request.
+	 */
+	public boolean canKeepAlive() {
+		return getRemainingRequests() > 0 && isOpen();
+	}
+	
+	/**
+	 * Records that the response to the current request has been completely written.
+	 */
+	public void responseWritten() {
+		lock.lock();
+		try {
+			responseWritten = System.currentTimeMillis();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Allows the connection to read the next request.
+	 */
+	public void resume() {
+		lock.lock();
+		try {
+			if (state == State.PENDING) {
+				state = State.RESUMED;
+			}
+			stateChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Ends the connection once the current request has been handled.
+	 */
+	public void finish() {
+		lock.lock();
+		try {
+			if (state != State.DETACHED) {
+				state = State.FINISHED;
+			}
+			stateChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Hands the socket to another protocol handler (such as a web socket), the connection will no longer read
+	 * requests or close the socket.
+	 */
+	public void detach() {
+		lock.lock();
+		try {
+			state = State.DETACHED;
+			stateChanged.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public boolean isDetached() {
+		lock.lock();
+		try {
+			return state == State.DETACHED;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Checks if the handler of the current request has run past the handler timeout without its response being written.
+	 * 
+	 * @param now The current time in milliseconds.
+	 * @return True if the connection should be ended.
+	 */
+	protected boolean isHandlerOverdue(long now) {
+		lock.lock();
+		try {
+			return handlerTimeout > 0 && responseWritten == 0 && now - requestStarted > handlerTimeout;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Waits for the current request to be handled. A response which is written but not resumed within the keep-alive
+	 * timeout (a cancelled keep-alive) ends the connection, as does a response which is not written within the handler
+	 * timeout, if one is set. Handlers which fail end the connection themselves.
+	 * 
+	 * @return True if the next request should be read, false if the connection should be ended.
+	 */
+	public boolean awaitResume() {
+		lock.lock();
+		try {
+			while (state == State.PENDING && isOpen()) {
+				long now = System.currentTimeMillis();
+				// the keep-alive timeout only applies once the response has been written, however long it took
+				if (responseWritten != 0 ? now - responseWritten > keepAliveTimeout : isHandlerOverdue(now)) {
+					return false;
+				}
+				stateChanged.await(1, TimeUnit.SECONDS);
+			}
+			return state == State.RESUMED && isOpen();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	public boolean isOpen() {
+		return !client.isClosed() && !client.isInputShutdown();
+	}
+	
+	/**
+	 * Closes the socket unless the connection has been detached.
+	 */
+	public void close() {
+		if (!isDetached()) {
+			try {
+				flush();
+			} catch (IOException e) {
+				// ignore
+			}
+			try {
+				client.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+	
+	// Closing the response stream (as error responses do) ends the connection without waiting for it to time out.
+	// Flushes while the next pipelined request is already buffered are held back so responses are written together.
+	private class ConnectionOutputStream extends FilterOutputStream {
+		
+		private int held;
+		
+		public ConnectionOutputStream(OutputStream out) {
+			super(out);
+			held = 0;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			if (held + 1 < pipelineDepth && hasPipelinedRequest()) {
+				held++;
+				return;
+			}
+			flushHeld();
+		}
+		
+		public void flushHeld() throws IOException {
+			held = 0;
+			out.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			try {
+				flushHeld();
+				out.close();
+			} finally {
+				finish();
+			}
+		}
+		
+	}
+
+}
@@ -0,0 +1,302 @@
+package net.winrob.proteus.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A read buffer which lives as long as the connection it reads from. The buffer is refilled with large reads, so
+ * request heads, bodies and protocol frames are read from memory rather than one socket read per byte, and any bytes
+ * read past the end of one request remain buffered for the body or the next request.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ConnectionReader extends InputStream {
+	
+	private static final int DEFAULT_SIZE = 8192;
+	
+	private final InputStream in;
+	private Flushable flushOnRead;
+	
+	byte[] buffer;
+	int position;
+	int limit;
+	
+	/**
+	 * Creates a new reader over a stream.
+	 * 
+	 * @param in The stream to read from, usually a socket stream.
+	 */
+	public ConnectionReader(InputStream in) {
+		this.in = in;
+		position = 0;
+		limit = 0;
+	}
+	
+	/**
+	 * Creates a new reader over a stream which returns bytes already read from the stream first.
+	 * 
+	 * @param in The stream to read from, usually a socket stream.
+	 * @param buffered The bytes already read from the stream.
+	 */
+	public ConnectionReader(InputStream in, byte[] buffered) {
+		this(in);
+		buffer = new byte[Math.max(DEFAULT_SIZE, buffered.length)];
+		System.arraycopy(buffered, 0, buffer, 0, buffered.length);
+		limit = buffered.length;
+	}
+	
+	/**
+	 * Wraps a stream in a reader, unless it is one already.
+	 * 
+	 * @param in The stream to read from.
+	 * @return A reader over the stream.
+	 */
+	public static ConnectionReader of(InputStream in) {
+		if (in instanceof ConnectionReader) {
+			return (ConnectionReader) in;
+		}
+		return new ConnectionReader(in);
+	}
+	
+	/**
+	 * Sets an output which is flushed whenever the reader has to read from the underlying stream, so a client is never
+	 * left waiting on output held back while the server waits on the client.
+	 * 
+	 * @param flushOnRead The output to flush, or null.
+	 */
+	public void setFlushOnRead(Flushable flushOnRead) {
+		this.flushOnRead = flushOnRead;
+	}
+	
+	/**
+	 * @return The number of bytes which can be read without reading from the underlying stream.
+	 */
+	public int buffered() {
+		return limit - position;
+	}
+	
+	/**
+	 * Moves the unread bytes to the start of the buffer, making room for the next fill.
+	 */
+	public void compact() {
+		if (position > 0) {
+			System.arraycopy(buffer, position, buffer, 0, limit - position);
+			limit -= position;
+			position = 0;
+		}
+	}
+	
+	/**
+	 * Reads as many bytes as the underlying stream has available (with a single blocking read) into the buffer, growing
+	 * the buffer if it is full.
+	 * 
+	 * @param maxSize The largest the buffer may grow to.
+	 * @return The number of bytes read, or -1 if the stream has ended.
+	 * @throws IOException If the underlying stream cannot be read.
+	 */
+	int fill(int maxSize) throws IOException {
+		if (buffer == null) {
+			buffer = new byte[DEFAULT_SIZE];
+		}
+		if (position == limit) {
+			position = 0;
+			limit = 0;
+		} else if (limit == buffer.length) {
+			compact();
+		}
+		if (limit == buffer.length) {
+			if (buffer.length >= maxSize) {
+				return 0;
+			}
+			byte[] grown = new byte[Math.min(maxSize, buffer.length * 2)];
+			System.arraycopy(buffer, 0, grown, 0, limit);
+			buffer = grown;
+		}
+		if (flushOnRead != null) {
+			flushOnRead.flush();
+		}
+		int read = in.read(buffer, limit, buffer.length - limit);
+		if (read > 0) {
+			limit += read;
+		}
+		return read;
+	}
+	
+	/**
+	 * Refills the buffer if it is empty.
+	 * 
+	 * @return The number of buffered bytes, or -1 if the buffer is empty and the stream has ended.
+	 * @throws IOException If the underlying stream cannot be read.
+	 */
+	public int fill() throws IOException {
+		if (position < limit) {
+			return limit - position;
+		}
+		int read = fill(DEFAULT_SIZE);
+		return read < 0 ? -1 : limit - position;
+	}
+	
+	/**
+	 * Looks at a byte ahead of the read position without consuming it.
+	 * 
+	 * @param offset The number of bytes after the read position.
+	 * @return The byte, or -1 if the stream ends first.
+	 * @throws IOException If the underlying stream cannot be read.
+	 */
+	public int peek(int offset) throws IOException {
+		while (limit - position <= offset) {
+			if (fill(Math.max(DEFAULT_SIZE, offset + 1)) < 0) {
+				return -1;
+			}
+		}
+		return buffer[position + offset] & 0xFF;
+	}
+	
+	/**
+	 * Looks at the next byte without consuming it.
+	 * 
+	 * @return The byte, or -1 if the stream has ended.
+	 * @throws IOException If the underlying stream cannot be read.
+	 */
+	public int peek() throws IOException {
+		return peek(0);
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (position == limit && fill() < 0) {
+			return -1;
+		}
+		return buffer[position++] & 0xFF;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position == limit) {
+			if (len >= DEFAULT_SIZE) {
+				// nothing is buffered, large reads go straight to the destination
+				if (flushOnRead != null) {
+					flushOnRead.flush();
+				}
+				return in.read(b, off, len);
+			}
+			if (fill() < 0) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, limit - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = 0;
+		while (skipped < n) {
+			if (position == limit && fill() < 0) {
+				break;
+			}
+			int step = (int) Math.min(n - skipped, limit - position);
+			position += step;
+			skipped += step;
+		}
+		return skipped;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return (limit - position) + in.available();
+	}
+	
+	/**
+	 * Reads a line terminated by a line feed.
+	 * 
+	 * @param strip True if the terminating CRLF (or LF) should be left out of the returned line.
+	 * @return The bytes of the line, which may be incomplete if the stream ended.
+	 * @throws IOException If the underlying stream cannot be read, or has ended before the line was started.
+	 */
+	public byte[] readRawLine(boolean strip) throws IOException {
+		return readRawLine(strip, Integer.MAX_VALUE);
+	}
+	
+	/**
+	 * Reads a line terminated by a line feed, which may be no longer than a limit.
+	 * 
+	 * @param strip True if the terminating CRLF (or LF) should be left out of the returned line.
+	 * @param maxLength The maximum number of bytes before the line feed.
+	 * @return The bytes of the line, which may be incomplete if the stream ended.
+	 * @throws IOException If the underlying stream cannot be read, has ended before the line was started, or the line
+	 * is longer than the limit.
+	 */
+	public byte[] readRawLine(boolean strip, int maxLength) throws IOException {
+		ByteArrayOutputStream line = new ByteArrayOutputStream();
+		while (true) {
+			if (position == limit && fill() < 0) {
+				if (line.size() == 0) {
+					throw new EOFException();
+				}
+				return line.toByteArray();
+			}
+			int end = position;
+			while (end < limit && buffer[end] != '\n') end++;
+			if (line.size() + (end - position) > maxLength) {
+				throw new IOException("Line longer than " + maxLength + " bytes");
+			}
+			boolean found = end < limit;
+			int take = (found ? end + 1 : end) - position;
+			line.write(buffer, position, take);
+			position += take;
+			if (found) {
+				byte[] bytes = line.toByteArray();
+				if (!strip) {
+					return bytes;
+				}
+				int length = bytes.length - 1;
+				if (length > 0 && bytes[length - 1] == '\r') {
+					length--;
+				}
+				return Arrays.copyOf(bytes, length);
+			}
+		}
+	}
+	
+	/**
+	 * Reads a UTF-8 line terminated by a line feed.
+	 * 
+	 * @param strip True if the terminating CRLF (or LF) should be left out of the returned line.
+	 * @return The line, which may be incomplete if the stream ended.
+	 * @throws IOException If the underlying stream cannot be read, or has ended before the line was started.
+	 */
+	public String readLine(boolean strip) throws IOException {
+		return new String(readRawLine(strip), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Reads a UTF-8 line terminated by a line feed, which may be no longer than a limit.
+	 * 
+	 * @param strip True if the terminating CRLF (or LF) should be left out of the returned line.
+	 * @param maxLength The maximum number of bytes before the line feed.
+	 * @return The line, which may be incomplete if the stream ended.
+	 * @throws IOException If the underlying stream cannot be read, has ended before the line was started, or the line
+	 * is longer than the limit.
+	 */
+	public String readLine(boolean strip, int maxLength) throws IOException {
+		return new String(readRawLine(strip, maxLength), StandardCharsets.UTF_8);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+}
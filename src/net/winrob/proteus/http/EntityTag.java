@@ -0,0 +1,126 @@
+package net.winrob.proteus.http;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * Creates and compares entity tags (the ETag, If-None-Match and If-Match headers).
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class EntityTag {
+	
+	private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+		try {
+			return MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	});
+	
+	private EntityTag() {
+	
+	}
+	
+	/**
+	 * Computes an entity tag from the content of a representation.
+	 * 
+	 * @param body The content.
+	 * @param length The length of the content.
+	 * @param weak True if the tag should be weak.
+	 * @return The quoted entity tag.
+	 */
+	public static String compute(byte[] body, int length, boolean weak) {
+		MessageDigest digest = DIGEST.get();
+		digest.reset();
+		digest.update(body, 0, length);
+		byte[] hash = digest.digest();
+		String opaque = Integer.toHexString(length) + "-" + Base64.getUrlEncoder().withoutPadding().encodeToString(hash).substring(0, 20);
+		return of(opaque, weak);
+	}
+	
+	/**
+	 * Creates an entity tag from an opaque value.
+	 * 
+	 * @param opaque The value of the tag, without quotes.
+	 * @param weak True if the tag should be weak.
+	 * @return The quoted entity tag.
+	 */
+	public static String of(String opaque, boolean weak) {
+		return (weak ? "W/\"" : "\"") + opaque + "\"";
+	}
+	
+	/**
+	 * Quotes an entity tag supplied by a handler, unless it is quoted already.
+	 * 
+	 * @param tag The tag, which may be weak (W/ prefixed) and quoted.
+	 * @return The quoted entity tag.
+	 */
+	public static String normalize(String tag) {
+		if (tag.startsWith("W/")) {
+			return tag.startsWith("\"", 2) ? tag : of(tag.substring(2), true);
+		}
+		return tag.startsWith("\"") ? tag : of(tag, false);
+	}
+	
+	/**
+	 * @param tag A quoted entity tag.
+	 * @return True if the tag is weak.
+	 */
+	public static boolean isWeak(String tag) {
+		return tag.startsWith("W/");
+	}
+	
+	/**
+	 * Distinguishes a strong tag per content coding, as a strong tag identifies the exact bytes sent. Weak tags are
+	 * shared by every coding of the same content.
+	 * 
+	 * @param tag The quoted entity tag of the uncoded representation.
+	 * @param coding The name of the content coding, or null if the representation is not coded.
+	 * @return The quoted entity tag of the coded representation.
+	 */
+	public static String forCoding(String tag, String coding) {
+		if (coding == null || isWeak(tag)) {
+			return tag;
+		}
+		return tag.substring(0, tag.length() - 1) + "-" + coding + "\"";
+	}
+	
+	/**
+	 * Compares an entity tag with a list of tags (the value of an If-None-Match header) using the weak comparison, as
+	 * If-None-Match requires.
+	 * 
+	 * @param list The comma separated list of quoted tags, or *.
+	 * @param tag The quoted entity tag of the current representation.
+	 * @return True if any tag in the list matches.
+	 */
+	public static boolean matchesAny(String list, String tag) {
+		int opaqueStart = isWeak(tag) ? 2 : 0;
+		int opaqueLength = tag.length() - opaqueStart;
+		int i = 0;
+		int length = list.length();
+		while (i < length) {
+			char c = list.charAt(i);
+			if (c == ' ' || c == '\t' || c == ',') {
+				i++;
+				continue;
+			}
+			if (c == '*') {
+				return true;
+			}
+			int start = list.startsWith("W/", i) ? i + 2 : i;
+			int end = list.indexOf(',', start);
+			if (end < 0) end = length;
+			int last = end;
+			while (last > start && (list.charAt(last - 1) == ' ' || list.charAt(last - 1) == '\t')) last--;
+			if (last - start == opaqueLength && list.regionMatches(start, tag, opaqueStart, opaqueLength)) {
+				return true;
+			}
+			i = end + 1;
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,83 @@
+package net.winrob.proteus.http;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * Formats and parses HTTP dates (IMF-fixdate, such as Sun, 06 Nov 1994 08:49:37 GMT). The current date and the last
+ * date formatted are cached, dates only change once a second so most responses reuse the same string.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class HttpDate {
+	
+	private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+	
+	private static volatile Cached now = new Cached(Long.MIN_VALUE, null);
+	private static volatile Cached last = new Cached(Long.MIN_VALUE, null);
+	
+	private HttpDate() {
+		
+	}
+	
+	/**
+	 * @return The current date, for the Date header.
+	 */
+	public static String now() {
+		long second = System.currentTimeMillis() / 1000;
+		Cached cached = now;
+		if (cached.second != second) {
+			cached = new Cached(second, FORMAT.format(Instant.ofEpochSecond(second)));
+			now = cached;
+		}
+		return cached.value;
+	}
+	
+	/**
+	 * Formats a date, such as the Last-Modified time of a response.
+	 * 
+	 * @param millis The date, in milliseconds since the epoch.
+	 * @return The formatted date.
+	 */
+	public static String format(long millis) {
+		long second = Math.floorDiv(millis, 1000);
+		Cached cached = last;
+		if (cached.second != second) {
+			cached = new Cached(second, FORMAT.format(Instant.ofEpochSecond(second)));
+			last = cached;
+		}
+		return cached.value;
+	}
+	
+	/**
+	 * Parses a date, such as the value of an If-Modified-Since header.
+	 * 
+	 * @param date The date.
+	 * @return The date in milliseconds since the epoch, or -1 if it is not a valid date.
+	 */
+	public static long parse(String date) {
+		try {
+			return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return -1;
+		}
+	}
+	
+	private static class Cached {
+		
+		private final long second;
+		private final String value;
+		
+		public Cached(long second, String value) {
+			this.second = second;
+			this.value = value;
+		}
+		
+	}
+
+}
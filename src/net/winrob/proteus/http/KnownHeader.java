@@ -0,0 +1,110 @@
+package net.winrob.proteus.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Request headers looked up by the server on every request. Their names are resolved once, when the request head is
+ * parsed, and their values are stored by index in the {@link RequestHead} rather than looked up by name.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public enum KnownHeader {
+	
+	ACCEPT_ENCODING("Accept-Encoding"),
+	AVAILABLE_DICTIONARY("Available-Dictionary"),
+	CONNECTION("Connection"),
+	CONTENT_ENCODING("Content-Encoding"),
+	CONTENT_LENGTH("Content-Length"),
+	CONTENT_TYPE("Content-Type"),
+	COOKIE("Cookie"),
+	DICTIONARY_ID("Dictionary-ID"),
+	HOST("Host"),
+	IF_MODIFIED_SINCE("If-Modified-Since"),
+	IF_NONE_MATCH("If-None-Match"),
+	IF_RANGE("If-Range"),
+	RANGE("Range"),
+	SEC_WEBSOCKET_KEY("Sec-WebSocket-Key"),
+	TRANSFER_ENCODING("Transfer-Encoding"),
+	UPGRADE("Upgrade");
+	
+	private static final KnownHeader[] VALUES = values();
+	private static final KnownHeader[][] BY_LENGTH;
+	
+	static {
+		int longest = 0;
+		for (KnownHeader header : VALUES) {
+			longest = Math.max(longest, header.lowerName.length);
+		}
+		BY_LENGTH = new KnownHeader[longest + 1][];
+		for (KnownHeader header : VALUES) {
+			KnownHeader[] same = BY_LENGTH[header.lowerName.length];
+			KnownHeader[] grown = new KnownHeader[same == null ? 1 : same.length + 1];
+			if (same != null) {
+				System.arraycopy(same, 0, grown, 0, same.length);
+			}
+			grown[grown.length - 1] = header;
+			BY_LENGTH[header.lowerName.length] = grown;
+		}
+	}
+	
+	private final String name;
+	private final byte[] lowerName;
+	
+	private KnownHeader(String name) {
+		this.name = name.intern();
+		this.lowerName = name.toLowerCase().getBytes(StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * @return The canonical name of this header.
+	 */
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return The number of known headers, the size of a table indexed by {@link #ordinal()}.
+	 */
+	public static int count() {
+		return VALUES.length;
+	}
+	
+	/**
+	 * Resolves a header name (ignoring case) without creating a String.
+	 * 
+	 * @param data The buffer containing the name.
+	 * @param start The index of the first byte of the name.
+	 * @param length The length of the name.
+	 * @return The known header, or null if the name is not a known header.
+	 */
+	public static KnownHeader forName(byte[] data, int start, int length) {
+		if (length >= BY_LENGTH.length || BY_LENGTH[length] == null) return null;
+		for (KnownHeader header : BY_LENGTH[length]) {
+			byte[] lower = header.lowerName;
+			int i = 0;
+			while (i < length) {
+				int c = data[start + i];
+				if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+				if (c != lower[i]) break;
+				i++;
+			}
+			if (i == length) {
+				return header;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Resolves a header name, ignoring case.
+	 * 
+	 * @param name The header name.
+	 * @return The known header, or null if the name is not a known header.
+	 */
+	public static KnownHeader forName(String name) {
+		byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+		return forName(bytes, 0, bytes.length);
+	}
+
+}
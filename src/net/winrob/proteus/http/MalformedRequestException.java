@@ -0,0 +1,17 @@
+package net.winrob.proteus.http;
+
+/**
+ * Thrown when a request head cannot be parsed, the client should be answered with 400 Bad Request.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class MalformedRequestException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+	
+	public MalformedRequestException(String message) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,156 @@
+package net.winrob.proteus.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single pass decoder for query strings, form (application/x-www-form-urlencoded) bodies and cookies. Each name and
+ * value is taken straight from the input, only those which contain escapes are copied and decoded. A value is
+ * everything after the first '=' of a pair, so values may contain '='.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ParameterDecoder {
+	
+	private ParameterDecoder() {
+	
+	}
+	
+	/**
+	 * Decodes a query string or form body.
+	 * 
+	 * @param s The query string, without its leading '?'.
+	 * @return The decoded parameters.
+	 */
+	public static ParameterList decodeQuery(String s) {
+		ParameterList parameters = new ParameterList();
+		decode(s, 0, s.length(), '&', true, parameters);
+		return parameters;
+	}
+	
+	/**
+	 * Decodes a UTF-8 form body.
+	 * 
+	 * @param data The body.
+	 * @param length The length of the body.
+	 * @return The decoded parameters.
+	 */
+	public static ParameterList decodeForm(byte[] data, int length) {
+		ParameterList parameters = new ParameterList();
+		int start = 0;
+		while (start < length) {
+			int end = start;
+			int equals = -1;
+			while (end < length && data[end] != '&') {
+				if (equals < 0 && data[end] == '=') equals = end;
+				end++;
+			}
+			if (end > start) {
+				int nameEnd = equals < 0 ? end : equals;
+				String name = component(data, start, nameEnd);
+				if (!name.isEmpty()) {
+					parameters.add(name, equals < 0 ? "" : component(data, equals + 1, end));
+				}
+			}
+			start = end + 1;
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Decodes a Cookie header. Cookie values are not escaped, they are only split into names and values.
+	 * 
+	 * @param s The Cookie header.
+	 * @return The cookies.
+	 */
+	public static ParameterList decodeCookies(String s) {
+		ParameterList parameters = new ParameterList();
+		decode(s, 0, s.length(), ';', false, parameters);
+		return parameters;
+	}
+	
+	private static void decode(String s, int start, int length, char separator, boolean escaped, ParameterList into) {
+		while (start < length) {
+			int end = s.indexOf(separator, start);
+			if (end < 0) end = length;
+			int from = start;
+			int to = end;
+			// whitespace around a parameter (spaces, tabs or line breaks) is not part of it, as with String.trim
+			while (from < to && s.charAt(from) <= ' ') from++;
+			while (to > from && s.charAt(to - 1) <= ' ') to--;
+			if (to > from) {
+				// only the parameter itself is scanned, or many parameters without '=' would each scan the rest
+				int equals = from;
+				while (equals < to && s.charAt(equals) != '=') equals++;
+				if (equals == to) equals = -1;
+				int nameEnd = equals < 0 ? to : equals;
+				String name = escaped ? component(s, from, nameEnd) : s.substring(from, nameEnd);
+				if (!name.isEmpty()) {
+					String value = equals < 0 ? "" : escaped ? component(s, equals + 1, to) : s.substring(equals + 1, to);
+					into.add(name, value);
+				}
+			}
+			start = end + 1;
+		}
+	}
+	
+	// Returns the component as is unless it contains '+', '%' or (already decoded as Latin-1) non-ASCII characters.
+	private static String component(String s, int start, int end) {
+		int i = start;
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c == '+' || c == '%' || c >= 0x80) break;
+			i++;
+		}
+		if (i == end) {
+			return s.substring(start, end);
+		}
+		byte[] bytes = new byte[end - start];
+		int length = 0;
+		for (i = start; i < end; i++) {
+			char c = s.charAt(i);
+			if (c == '+') {
+				bytes[length++] = ' ';
+			} else if (c == '%' && i + 2 < end && hex(s.charAt(i + 1)) >= 0 && hex(s.charAt(i + 2)) >= 0) {
+				bytes[length++] = (byte) ((hex(s.charAt(i + 1)) << 4) | hex(s.charAt(i + 2)));
+				i += 2;
+			} else if (c < 0x100) {
+				bytes[length++] = (byte) c;
+			} else {
+				// characters outside Latin-1 cannot come from the request bytes, keep them as they are
+				return s.substring(start, end);
+			}
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	private static String component(byte[] data, int start, int end) {
+		int i = start;
+		while (i < end && data[i] != '+' && data[i] != '%') i++;
+		if (i == end) {
+			return new String(data, start, end - start, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[end - start];
+		int length = 0;
+		for (i = start; i < end; i++) {
+			byte b = data[i];
+			if (b == '+') {
+				bytes[length++] = ' ';
+			} else if (b == '%' && i + 2 < end && hex(data[i + 1]) >= 0 && hex(data[i + 2]) >= 0) {
+				bytes[length++] = (byte) ((hex(data[i + 1]) << 4) | hex(data[i + 2]));
+				i += 2;
+			} else {
+				bytes[length++] = b;
+			}
+		}
+		return new String(bytes, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	private static int hex(int c) {
+		if (c >= '0' && c <= '9') return c - '0';
+		if (c >= 'a' && c <= 'f') return c - 'a' + 10;
+		if (c >= 'A' && c <= 'F') return c - 'A' + 10;
+		return -1;
+	}
+
+}
@@ -0,0 +1,180 @@
+package net.winrob.proteus.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An ordered list of name/value parameters (such as a query string, form body or cookies) stored in a single flat array.
+ * A name may appear more than once, as a {@link Map} the last value of each name is visible, the same as parameters put
+ * into a map one after the other, while {@link #getAll(String)} returns every value. Lookups scan the array, which is
+ * faster than hashing for the handful of parameters most requests carry, larger lists are indexed on first lookup.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ParameterList extends AbstractMap<String, String> {
+	
+	private static final int INDEX_THRESHOLD = 16;
+	
+	private String[] data;
+	private int size;
+	private Map<String, Integer> index;
+	
+	public ParameterList() {
+		data = new String[8];
+		size = 0;
+	}
+	
+	/**
+	 * Adds a parameter, keeping any earlier values of the same name.
+	 * 
+	 * @param name The name of the parameter.
+	 * @param value The value of the parameter.
+	 */
+	public void add(String name, String value) {
+		if (size * 2 == data.length) {
+			String[] grown = new String[data.length * 2];
+			System.arraycopy(data, 0, grown, 0, data.length);
+			data = grown;
+		}
+		data[size * 2] = name;
+		data[size * 2 + 1] = value;
+		size++;
+		index = null;
+	}
+	
+	/**
+	 * @return The number of parameters, counting each value of a repeated name.
+	 */
+	public int count() {
+		return size;
+	}
+	
+	public String getName(int i) {
+		return data[i * 2];
+	}
+	
+	public String getValue(int i) {
+		return data[i * 2 + 1];
+	}
+	
+	/**
+	 * @param name The name of the parameter.
+	 * @return The first value of the parameter, or null if it is not present.
+	 */
+	public String getFirst(String name) {
+		for (int i = 0; i < size; i++) {
+			if (data[i * 2].equals(name)) return data[i * 2 + 1];
+		}
+		return null;
+	}
+	
+	/**
+	 * @param name The name of the parameter.
+	 * @return Every value of the parameter in order, which is empty if it is not present.
+	 */
+	public List<String> getAll(String name) {
+		List<String> values = new ArrayList<>(1);
+		for (int i = 0; i < size; i++) {
+			if (data[i * 2].equals(name)) values.add(data[i * 2 + 1]);
+		}
+		return values;
+	}
+	
+	// The position of the last value of each name, built once for larger lists.
+	private Map<String, Integer> index() {
+		if (index == null) {
+			index = new HashMap<>(size * 2);
+			for (int i = 0; i < size; i++) {
+				index.put(data[i * 2], i);
+			}
+		}
+		return index;
+	}
+	
+	// The position of the last value of a name, which is the one visible through the map.
+	private int lastIndexOf(Object name) {
+		if (size > INDEX_THRESHOLD) {
+			Integer i = index().get(name);
+			return i != null ? i : -1;
+		}
+		for (int i = size - 1; i >= 0; i--) {
+			if (data[i * 2].equals(name)) return i;
+		}
+		return -1;
+	}
+	
+	@Override
+	public String get(Object name) {
+		int i = lastIndexOf(name);
+		return i >= 0 ? data[i * 2 + 1] : null;
+	}
+	
+	@Override
+	public boolean containsKey(Object name) {
+		return lastIndexOf(name) >= 0;
+	}
+	
+	@Override
+	public String put(String name, String value) {
+		String previous = get(name);
+		add(name, value);
+		return previous;
+	}
+	
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+	
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return new Iterator<Entry<String, String>>() {
+	
+					private int next = advance(0);
+	
+					// Skips values which are hidden by a later value of the same name.
+					private int advance(int i) {
+						while (i < size && lastIndexOf(data[i * 2]) != i) i++;
+						return i;
+					}
+	
+					@Override
+					public boolean hasNext() {
+						return next < size;
+					}
+	
+					@Override
+					public Entry<String, String> next() {
+						if (next >= size) throw new NoSuchElementException();
+						Entry<String, String> entry = new SimpleImmutableEntry<>(data[next * 2], data[next * 2 + 1]);
+						next = advance(next + 1);
+						return entry;
+					}
+	
+				};
+			}
+	
+			@Override
+			public int size() {
+				// the index holds one position per name, small lists are counted without one
+				if (ParameterList.this.size > INDEX_THRESHOLD) {
+					return index().size();
+				}
+				int distinct = 0;
+				for (int i = 0; i < ParameterList.this.size; i++) {
+					if (lastIndexOf(data[i * 2]) == i) distinct++;
+				}
+				return distinct;
+			}
+	
+		};
+	}
+
+}
@@ -0,0 +1,175 @@
+package net.winrob.proteus.http;
+
+import java.nio.charset.StandardCharsets;
+
+import net.winrob.proteus.header.HeaderValue;
+import net.winrob.proteus.header.ProteusHeaderBuilder;
+import net.winrob.proteus.header.ProteusHttpHeaders;
+
+/**
+ * The request line and headers of an HTTP/1.1 request. Headers read by the {@link RequestHeadParser} are kept as spans
+ * of the raw head until {@link #getHeaders()} is first called, so a request whose handler never looks at its headers
+ * never has them parsed into {@link ProteusHttpHeaders}.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class RequestHead {
+	
+	private final String method;
+	private final String path;
+	private final String version;
+	private final String[] known;
+	
+	private final byte[] raw;
+	private final int[] spans;
+	private final int count;
+	private ProteusHttpHeaders headers;
+	
+	/**
+	 * Creates a new request head, resolving the values of its {@link KnownHeader}s from the headers.
+	 * 
+	 * @param method The request method.
+	 * @param path The request target.
+	 * @param version The HTTP version.
+	 * @param headers All headers of the request.
+	 */
+	public RequestHead(String method, String path, String version, ProteusHttpHeaders headers) {
+		this(method, path, version, headers, resolveKnown(headers));
+	}
+	
+	/**
+	 * Creates a new request head with the values of its {@link KnownHeader}s already resolved.
+	 * 
+	 * @param method The request method.
+	 * @param path The request target.
+	 * @param version The HTTP version.
+	 * @param headers All headers of the request.
+	 * @param known The values of the known headers, indexed by {@link KnownHeader#ordinal()}.
+	 */
+	public RequestHead(String method, String path, String version, ProteusHttpHeaders headers, String[] known) {
+		this.method = method;
+		this.path = path;
+		this.version = version;
+		this.headers = headers;
+		this.known = known;
+		this.raw = null;
+		this.spans = null;
+		this.count = 0;
+	}
+	
+	/**
+	 * Creates a new request head whose headers are parsed on first use.
+	 * 
+	 * @param method The request method.
+	 * @param path The request target.
+	 * @param version The HTTP version.
+	 * @param known The values of the known headers, indexed by {@link KnownHeader#ordinal()}.
+	 * @param raw The raw header lines.
+	 * @param spans The name start, name end, value start and value end in the raw header lines of each header.
+	 * @param count The number of headers.
+	 */
+	RequestHead(String method, String path, String version, String[] known, byte[] raw, int[] spans, int count) {
+		this.method = method;
+		this.path = path;
+		this.version = version;
+		this.known = known;
+		this.raw = raw;
+		this.spans = spans;
+		this.count = count;
+	}
+	
+	private static String[] resolveKnown(ProteusHttpHeaders headers) {
+		String[] known = new String[KnownHeader.count()];
+		for (KnownHeader header : KnownHeader.values()) {
+			if (headers.hasHeader(header.getName())) {
+				StringBuilder value = new StringBuilder();
+				for (HeaderValue hv : headers.getHeader(header.getName()).getValues()) {
+					if (value.length() > 0) value.append(", ");
+					value.append(hv.getValue());
+				}
+				known[header.ordinal()] = value.toString();
+			}
+		}
+		return known;
+	}
+	
+	public String getMethod() {
+		return method;
+	}
+	
+	public String getPath() {
+		return path;
+	}
+	
+	public String getVersion() {
+		return version;
+	}
+	
+	/**
+	 * @return All headers of the request, which are parsed the first time they are asked for.
+	 */
+	public synchronized ProteusHttpHeaders getHeaders() {
+		if (headers == null) {
+			ProteusHeaderBuilder headerBuilder = ProteusHeaderBuilder.newBuilder();
+			for (int h = 0; h < count; h++) {
+				int nameStart = spans[h * 4];
+				int nameLength = spans[h * 4 + 1] - nameStart;
+				int valueStart = spans[h * 4 + 2];
+				int valueLength = spans[h * 4 + 3] - valueStart;
+				KnownHeader header = KnownHeader.forName(raw, nameStart, nameLength);
+				String name = header != null ? header.getName() : new String(raw, nameStart, nameLength, StandardCharsets.ISO_8859_1);
+				headerBuilder.putHeader(name, new String(raw, valueStart, valueLength, isAscii(raw, valueStart, valueLength)
+						? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8));
+			}
+			headers = headerBuilder.toHeaders();
+		}
+		return headers;
+	}
+	
+	private static boolean isAscii(byte[] data, int start, int length) {
+		for (int i = start; i < start + length; i++) {
+			if (data[i] < 0) return false;
+		}
+		return true;
+	}
+	
+	public boolean hasHeader(KnownHeader header) {
+		return known[header.ordinal()] != null;
+	}
+	
+	/**
+	 * @param header The header to get.
+	 * @return The raw value of the header, repeated headers joined by commas, or null if it was not sent.
+	 */
+	public String getHeader(KnownHeader header) {
+		return known[header.ordinal()];
+	}
+	
+	/**
+	 * Checks a comma separated header (such as Connection) for a token, ignoring case.
+	 * 
+	 * @param header The header to check.
+	 * @param token The token to look for.
+	 * @return True if the header was sent and lists the token.
+	 */
+	public boolean hasToken(KnownHeader header, String token) {
+		String value = known[header.ordinal()];
+		if (value == null) return false;
+		int start = 0;
+		while (start <= value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0) end = value.length();
+			int s = start;
+			int e = end;
+			while (s < e && value.charAt(s) == ' ') s++;
+			while (e > s && value.charAt(e - 1) == ' ') e--;
+			if (e - s == token.length() && value.regionMatches(true, s, token, 0, token.length())) {
+				return true;
+			}
+			start = end + 1;
+		}
+		return false;
+	}
+
+}
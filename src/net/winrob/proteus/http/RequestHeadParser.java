@@ -0,0 +1,213 @@
+package net.winrob.proteus.http;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single pass HTTP/1.1 request head parser which works directly on bytes. The request line and each header are
+ * located as spans of the input, only the final method, path, version, header name and header value Strings are
+ * created. The names of {@link KnownHeader}s are resolved without creating a String at all, and other headers are
+ * only kept as spans of a copy of the head (see {@link RequestHead#getHeaders()}).
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class RequestHeadParser {
+	
+	private static final boolean[] TOKEN = new boolean[256];
+	
+	static {
+		for (int c = '0'; c <= '9'; c++) TOKEN[c] = true;
+		for (int c = 'A'; c <= 'Z'; c++) TOKEN[c] = true;
+		for (int c = 'a'; c <= 'z'; c++) TOKEN[c] = true;
+		for (char c : "!#$%&'*+-.^_`|~".toCharArray()) TOKEN[c] = true;
+	}
+	
+	private final int maxHeadSize;
+	
+	/**
+	 * Creates a new parser.
+	 * 
+	 * @param maxHeadSize The largest request head, in bytes, which will be read.
+	 */
+	public RequestHeadParser(int maxHeadSize) {
+		this.maxHeadSize = maxHeadSize;
+	}
+	
+	/**
+	 * Reads and parses the next request head from a connection, leaving any bytes after its terminating empty line
+	 * buffered in the reader. Empty lines before the request line are skipped.
+	 * 
+	 * @param reader The connection reader to read from.
+	 * @return The parsed request head, or null if the connection ended before a request was started.
+	 * @throws IOException If the connection cannot be read or ends part way through a request head.
+	 * @throws MalformedRequestException If the request head is malformed or too large.
+	 */
+	public RequestHead read(ConnectionReader reader) throws IOException, MalformedRequestException {
+		int c;
+		while ((c = reader.peek()) == '\r' || c == '\n') {
+			reader.position++;
+		}
+		if (c < 0) {
+			return null;
+		}
+		// the index of the last byte of the empty line is searched for, which lies at least three bytes in
+		int scanned = reader.position + 3;
+		while (true) {
+			int end = findHeadEnd(reader.buffer, scanned, reader.limit);
+			if (end - reader.position > maxHeadSize) {
+				throw new MalformedRequestException("Request head too large");
+			}
+			if (end >= 0) {
+				RequestHead head = parse(reader.buffer, reader.position, end);
+				reader.position = end;
+				return head;
+			}
+			int length = reader.limit - reader.position;
+			if (length >= maxHeadSize) {
+				throw new MalformedRequestException("Request head too large");
+			}
+			if (reader.fill(maxHeadSize) < 0) {
+				throw new IOException("Stream ended within request head");
+			}
+			// the buffer may have been compacted, only the newly read bytes can end the head
+			scanned = reader.position + Math.max(3, length);
+		}
+	}
+	
+	/**
+	 * Finds the end of a request head.
+	 * 
+	 * @param data The buffer to search.
+	 * @param from The index to start searching from.
+	 * @param end The end (exclusive) of the valid bytes in the buffer.
+	 * @return The index after the terminating empty line, or -1 if the head is not complete.
+	 */
+	public static int findHeadEnd(byte[] data, int from, int end) {
+		for (int i = Math.max(from, 3); i < end; i++) {
+			if (data[i] == '\n' && data[i - 1] == '\r' && data[i - 2] == '\n' && data[i - 3] == '\r') {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Parses a complete request head.
+	 * 
+	 * @param data The buffer containing the head.
+	 * @param start The index of the first byte of the request line.
+	 * @param end The index after the terminating empty line.
+	 * @return The parsed request head.
+	 * @throws MalformedRequestException If the request line or a header is malformed.
+	 */
+	public static RequestHead parse(byte[] data, int start, int end) throws MalformedRequestException {
+		int i = start;
+		
+		int methodStart = i;
+		while (i < end && TOKEN[data[i] & 0xFF]) i++;
+		if (i == methodStart || i >= end || data[i] != ' ') throw new MalformedRequestException("Malformed method");
+		int methodEnd = i++;
+		
+		int pathStart = i;
+		while (i < end && (data[i] & 0xFF) > 0x20 && data[i] != 0x7F) i++;
+		if (i == pathStart || i >= end || data[i] != ' ') throw new MalformedRequestException("Malformed request target");
+		int pathEnd = i++;
+		
+		int versionStart = i;
+		if (end - i < 10 || data[i] != 'H' || data[i + 1] != 'T' || data[i + 2] != 'T' || data[i + 3] != 'P' || data[i + 4] != '/'
+				|| !isDigit(data[i + 5]) || data[i + 6] != '.' || !isDigit(data[i + 7]) || data[i + 8] != '\r' || data[i + 9] != '\n') {
+			throw new MalformedRequestException("Malformed HTTP version");
+		}
+		int versionEnd = i + 8;
+		i += 10;
+		
+		int headersStart = i;
+		int[] spans = new int[64];
+		int count = 0;
+		String[] known = new String[KnownHeader.count()];
+		while (true) {
+			if (i + 1 >= end) throw new MalformedRequestException("Unterminated request head");
+			if (data[i] == '\r') {
+				if (data[i + 1] != '\n') throw new MalformedRequestException("Malformed line ending");
+				break;
+			}
+			if (data[i] == ' ' || data[i] == '\t') throw new MalformedRequestException("Obsolete line folding");
+			
+			int nameStart = i;
+			while (i < end && TOKEN[data[i] & 0xFF]) i++;
+			if (i == nameStart || i >= end || data[i] != ':') throw new MalformedRequestException("Malformed header name");
+			int nameEnd = i++;
+			
+			while (i < end && (data[i] == ' ' || data[i] == '\t')) i++;
+			int valueStart = i;
+			int valueEnd = i;
+			boolean ascii = true;
+			while (i < end && data[i] != '\r') {
+				int c = data[i] & 0xFF;
+				if ((c < 0x20 && c != '\t') || c == 0x7F) throw new MalformedRequestException("Invalid header value");
+				if (c >= 0x80) ascii = false;
+				if (c != ' ' && c != '\t') valueEnd = i + 1;
+				i++;
+			}
+			if (i + 1 >= end || data[i + 1] != '\n') throw new MalformedRequestException("Malformed line ending");
+			i += 2;
+			
+			if (valueEnd > valueStart) {
+				// only the values of known headers are decoded now, every other header is kept as a span
+				KnownHeader header = KnownHeader.forName(data, nameStart, nameEnd - nameStart);
+				if (header != null) {
+					String value = new String(data, valueStart, valueEnd - valueStart, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+					int id = header.ordinal();
+					known[id] = known[id] == null ? value : known[id] + ", " + value;
+				}
+				if (count * 4 == spans.length) {
+					int[] grown = new int[spans.length * 2];
+					System.arraycopy(spans, 0, grown, 0, spans.length);
+					spans = grown;
+				}
+				spans[count * 4] = nameStart - headersStart;
+				spans[count * 4 + 1] = nameEnd - headersStart;
+				spans[count * 4 + 2] = valueStart - headersStart;
+				spans[count * 4 + 3] = valueEnd - headersStart;
+				count++;
+			}
+		}
+		// a body framed both ways would be read one way here and the other by an intermediary (request smuggling)
+		if (known[KnownHeader.CONTENT_LENGTH.ordinal()] != null && known[KnownHeader.TRANSFER_ENCODING.ordinal()] != null) {
+			throw new MalformedRequestException("Content-Length with Transfer-Encoding");
+		}
+		int contentLength = KnownHeader.CONTENT_LENGTH.ordinal();
+		if (known[contentLength] != null) {
+			known[contentLength] = contentLength(known[contentLength]);
+		}
+		byte[] raw = new byte[i - headersStart];
+		System.arraycopy(data, headersStart, raw, 0, raw.length);
+		return new RequestHead(
+				new String(data, methodStart, methodEnd - methodStart, StandardCharsets.ISO_8859_1),
+				new String(data, pathStart, pathEnd - pathStart, StandardCharsets.ISO_8859_1),
+				new String(data, versionStart, versionEnd - versionStart, StandardCharsets.ISO_8859_1),
+				known, raw, spans, count);
+	}
+	
+	// A Content-Length repeated (in several fields or as a list) must repeat one value, which is kept once. Values of
+	// more than 18 digits are rejected so every valid length fits in a long.
+	private static String contentLength(String value) throws MalformedRequestException {
+		String length = null;
+		for (String element : value.split(",", -1)) {
+			String digits = element.trim();
+			if (digits.isEmpty() || digits.length() > 18) throw new MalformedRequestException("Invalid Content-Length");
+			for (int i = 0; i < digits.length(); i++) {
+				if (digits.charAt(i) < '0' || digits.charAt(i) > '9') throw new MalformedRequestException("Invalid Content-Length");
+			}
+			if (length != null && !length.equals(digits)) throw new MalformedRequestException("Conflicting Content-Length");
+			length = digits;
+		}
+		return length;
+	}
+	
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+}
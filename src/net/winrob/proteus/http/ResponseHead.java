@@ -0,0 +1,130 @@
+package net.winrob.proteus.http;
+
+import java.nio.charset.StandardCharsets;
+
+import net.winrob.proteus.api.response.ResponseCode;
+
+/**
+ * Assembles the head of a response (its status line and headers) in a single buffer, so it can be written with one
+ * write, together with the start of the body. The status line of every {@link ResponseCode} is encoded once.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ResponseHead {
+	
+	private static final byte[][] STATUS_LINES;
+	private static final byte[] CRLF = "\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	static {
+		ResponseCode[] codes = ResponseCode.values();
+		STATUS_LINES = new byte[codes.length][];
+		for (ResponseCode code : codes) {
+			STATUS_LINES[code.ordinal()] = ("HTTP/1.1 " + code.getCode() + " " + code.getName() + "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		}
+	}
+	
+	private byte[] buffer;
+	private int count;
+	
+	/**
+	 * Starts a new head with the status line of a response code.
+	 * 
+	 * @param code The {@link ResponseCode} of the response.
+	 */
+	public ResponseHead(ResponseCode code) {
+		byte[] status = STATUS_LINES[code.ordinal()];
+		buffer = new byte[512];
+		System.arraycopy(status, 0, buffer, 0, status.length);
+		count = status.length;
+	}
+	
+	/**
+	 * Adds a header.
+	 * 
+	 * @param name The name of the header.
+	 * @param value The value of the header.
+	 * @return This head.
+	 */
+	public ResponseHead header(String name, String value) {
+		append(name);
+		ensure(2);
+		buffer[count++] = ':';
+		buffer[count++] = ' ';
+		append(value);
+		return append(CRLF);
+	}
+	
+	/**
+	 * Adds a header with a numeric value, such as Content-Length.
+	 * 
+	 * @param name The name of the header.
+	 * @param value The value of the header.
+	 * @return This head.
+	 */
+	public ResponseHead header(String name, long value) {
+		return header(name, Long.toString(value));
+	}
+	
+	/**
+	 * Adds a header which is already formatted (Name: value), such as those of a header builder.
+	 * 
+	 * @param line The header, without its line break.
+	 * @return This head.
+	 */
+	public ResponseHead line(String line) {
+		append(line);
+		return append(CRLF);
+	}
+	
+	/**
+	 * Ends the head with an empty line, no headers may be added after.
+	 * 
+	 * @return This head.
+	 */
+	public ResponseHead end() {
+		return append(CRLF);
+	}
+	
+	/**
+	 * @return The buffer holding the head, which is {@link #getLength()} bytes long.
+	 */
+	public byte[] getBuffer() {
+		return buffer;
+	}
+	
+	public int getLength() {
+		return count;
+	}
+	
+	private ResponseHead append(byte[] bytes) {
+		ensure(bytes.length);
+		System.arraycopy(bytes, 0, buffer, count, bytes.length);
+		count += bytes.length;
+		return this;
+	}
+	
+	// Header text is almost always ASCII and is copied a char at a time, anything else is encoded as UTF-8.
+	private void append(String s) {
+		int length = s.length();
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			char c = s.charAt(i);
+			if (c >= 0x80) {
+				count -= i;
+				append(s.getBytes(StandardCharsets.UTF_8));
+				return;
+			}
+			buffer[count++] = (byte) c;
+		}
+	}
+	
+	private void ensure(int length) {
+		if (count + length > buffer.length) {
+			byte[] grown = new byte[Math.max(buffer.length * 2, count + length)];
+			System.arraycopy(buffer, 0, grown, 0, count);
+			buffer = grown;
+		}
+	}
+
+}
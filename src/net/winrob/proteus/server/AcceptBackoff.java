@@ -0,0 +1,41 @@
+package net.winrob.proteus.server;
+
+/**
+ * Slows an accept loop down while accepting keeps failing, such as when the process has run out of file descriptors,
+ * so the loop does not spin on the error and starve the connections whose closing would end it. Each failure in a row
+ * waits twice as long as the one before, up to a second.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class AcceptBackoff {
+	
+	private static final long MIN_DELAY = 5;
+	private static final long MAX_DELAY = 1000;
+	
+	private long delay;
+	
+	public AcceptBackoff() {
+		delay = 0;
+	}
+	
+	/**
+	 * Waits before the next accept is tried.
+	 */
+	public void failed() {
+		delay = delay == 0 ? MIN_DELAY : Math.min(MAX_DELAY, delay * 2);
+		try {
+			Thread.sleep(delay);
+		} catch (InterruptedException e) {
+			// ignore
+		}
+	}
+	
+	/**
+	 * Resets the wait once a connection was accepted.
+	 */
+	public void accepted() {
+		delay = 0;
+	}
+
+}
@@ -0,0 +1,132 @@
+package net.winrob.proteus.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs client connection handlers according to a {@link ConnectionMode}, naming threads per server and
+ * recording thread counts to the server's {@link ServerMetrics}.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ConnectionExecutor implements Executor {
+	
+	private final ConnectionMode mode;
+	private final Executor executor;
+	private final ThreadFactory threadFactory;
+	private final ServerMetrics metrics;
+	
+	/**
+	 * Creates a new executor which creates a thread per connection.
+	 * 
+	 * @param name The prefix used when naming handler threads.
+	 * @param mode The {@link ConnectionMode} to be used, which may not be {@link ConnectionMode#EXECUTOR}.
+	 * @param metrics The {@link ServerMetrics} which records handler threads.
+	 */
+	public ConnectionExecutor(String name, ConnectionMode mode, ServerMetrics metrics) {
+		this(name, mode, null, metrics);
+	}
+	
+	/**
+	 * Creates a new executor which submits connections to the given executor.
+	 * 
+	 * @param executor The {@link Executor} which runs connection handlers.
+	 * @param metrics The {@link ServerMetrics} which records handler threads.
+	 */
+	public ConnectionExecutor(Executor executor, ServerMetrics metrics) {
+		this(null, ConnectionMode.EXECUTOR, executor, metrics);
+	}
+	
+	private ConnectionExecutor(String name, ConnectionMode mode, Executor executor, ServerMetrics metrics) {
+		this.metrics = metrics;
+		this.executor = executor;
+		ThreadFactory factory = null;
+		switch (mode) {
+		case EXECUTOR:
+			if (executor == null) throw new IllegalArgumentException("An executor must be supplied in EXECUTOR mode.");
+			break;
+		case VIRTUAL:
+			factory = virtualThreadFactory(name);
+			if (factory == null) {
+				System.err.println("Virtual threads are not supported by this runtime, falling back to platform threads.");
+				mode = ConnectionMode.PLATFORM;
+				factory = platformThreadFactory(name);
+			}
+			break;
+		case PLATFORM:
+		default:
+			factory = platformThreadFactory(name);
+			break;
+		}
+		this.mode = mode;
+		this.threadFactory = factory;
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		Runnable tracked = () -> {
+			metrics.handlerStarted();
+			try {
+				command.run();
+			} finally {
+				metrics.handlerFinished();
+			}
+		};
+		if (mode == ConnectionMode.EXECUTOR) {
+			executor.execute(tracked);
+		} else {
+			threadFactory.newThread(tracked).start();
+		}
+	}
+	
+	/**
+	 * Creates a fixed pool of named platform threads which are recorded to this executor's {@link ServerMetrics}.
+	 * 
+	 * @param name The prefix used when naming pool threads.
+	 * @param threads The number of threads in the pool.
+	 * @return The new pool, which must be shut down by the caller.
+	 */
+	public ExecutorService newWorkerPool(String name, int threads) {
+		return Executors.newFixedThreadPool(threads, platformThreadFactory(name));
+	}
+	
+	/**
+	 * @return The {@link ConnectionMode} in effect, which may differ from the requested mode if it was unsupported.
+	 */
+	public ConnectionMode getMode() {
+		return mode;
+	}
+	
+	private ThreadFactory platformThreadFactory(String name) {
+		AtomicLong counter = new AtomicLong();
+		return (r) -> {
+			Thread thread = new Thread(r, name + "-" + counter.getAndIncrement());
+			metrics.threadCreated();
+			return thread;
+		};
+	}
+	
+	// Thread.ofVirtual() is resolved reflectively so the server still runs on runtimes without virtual threads.
+	private ThreadFactory virtualThreadFactory(String name) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			Method factoryMethod = builderClass.getMethod("factory");
+			ThreadFactory factory = (ThreadFactory) factoryMethod.invoke(builder);
+			return (r) -> {
+				Thread thread = factory.newThread(r);
+				metrics.threadCreated();
+				return thread;
+			};
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,27 @@
+package net.winrob.proteus.server;
+
+/**
+ * The strategy used by a {@link net.winrob.proteus.ProteusServer} to run client connection handlers.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public enum ConnectionMode {
+	
+	/**
+	 * Each connection is handled on a newly created platform thread (the legacy behavior).
+	 */
+	PLATFORM,
+	
+	/**
+	 * Each connection is handled on a newly created virtual thread, if the runtime supports them.
+	 * Falls back to {@link #PLATFORM} otherwise.
+	 */
+	VIRTUAL,
+	
+	/**
+	 * Connections are submitted to a user supplied {@link java.util.concurrent.Executor}.
+	 */
+	EXECUTOR;
+
+}
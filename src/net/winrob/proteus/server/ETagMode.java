@@ -0,0 +1,28 @@
+package net.winrob.proteus.server;
+
+/**
+ * How the responses of an endpoint are given entity tags (the ETag header) when the handler does not supply one.
+ * Tagged responses are answered with 304 (Not Modified) when the client already has the same content. Only bodies held
+ * in memory are hashed, files are tagged from their size and modification time and other streams are left untagged.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public enum ETagMode {
+	
+	/**
+	 * Only responses given a tag by their handler are tagged.
+	 */
+	NONE,
+	
+	/**
+	 * A weak tag is computed from the content of every response, shared by every content coding of that content.
+	 */
+	WEAK,
+	
+	/**
+	 * A strong tag is computed from the content of every response, distinct for each content coding.
+	 */
+	STRONG;
+
+}
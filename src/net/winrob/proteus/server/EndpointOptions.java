@@ -0,0 +1,323 @@
+package net.winrob.proteus.server;
+
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.winrob.proteus.compression.CompressionPolicy;
+
+/**
+ * Server-side options for a single endpoint (port) of a {@link net.winrob.proteus.ProteusServer}.
+ * Options must be set before the server is started.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class EndpointOptions {
+	
+	private Transport transport;
+	private int eventLoops;
+	private int workers;
+	private int maxHeadSize;
+	private int handlerTimeout;
+	private int maxBufferedBody;
+	private int acceptors;
+	private boolean reusePort;
+	private boolean zeroCopyFiles;
+	private int backlog;
+	private InetAddress bindAddress;
+	private int pipelineDepth;
+	private int routeCacheSize;
+	private ETagMode etagMode;
+	private long compressionCacheSize;
+	private boolean precompressedFiles;
+	private long dictionaryStoreSize;
+	private CompressionPolicy compressionPolicy;
+	private final Map<String, CompressionPolicy> pathCompressionPolicies;
+	
+	public EndpointOptions() {
+		int cores = Runtime.getRuntime().availableProcessors();
+		transport = Transport.BLOCKING;
+		eventLoops = cores;
+		workers = cores * 4;
+		maxHeadSize = 16384;
+		handlerTimeout = 0;
+		maxBufferedBody = 1048576;
+		acceptors = 1;
+		reusePort = false;
+		zeroCopyFiles = false;
+		backlog = 1024;
+		bindAddress = null;
+		pipelineDepth = 16;
+		routeCacheSize = 4096;
+		etagMode = ETagMode.NONE;
+		compressionCacheSize = 16777216;
+		precompressedFiles = true;
+		dictionaryStoreSize = 0;
+		compressionPolicy = new CompressionPolicy();
+		pathCompressionPolicies = new LinkedHashMap<>();
+	}
+	
+	/**
+	 * @return The {@link Transport} used to accept and read connections.
+	 */
+	public Transport getTransport() {
+		return transport;
+	}
+	
+	public EndpointOptions setTransport(Transport transport) {
+		this.transport = transport;
+		return this;
+	}
+	
+	/**
+	 * @return The number of selector threads used by the {@link Transport#NIO} transport.
+	 */
+	public int getEventLoops() {
+		return eventLoops;
+	}
+	
+	public EndpointOptions setEventLoops(int eventLoops) {
+		this.eventLoops = Math.max(1, eventLoops);
+		return this;
+	}
+	
+	/**
+	 * @return The number of worker threads handling requests from the {@link Transport#NIO} transport, used when
+	 * the server runs connections on platform threads.
+	 */
+	public int getWorkers() {
+		return workers;
+	}
+	
+	public EndpointOptions setWorkers(int workers) {
+		this.workers = Math.max(1, workers);
+		return this;
+	}
+	
+	/**
+	 * @return The largest request head, in bytes, which will be read.
+	 */
+	public int getMaxHeadSize() {
+		return maxHeadSize;
+	}
+	
+	public EndpointOptions setMaxHeadSize(int maxHeadSize) {
+		this.maxHeadSize = maxHeadSize;
+		return this;
+	}
+	
+	/**
+	 * @return The time, in milliseconds, a request may go without its response being written before its connection is
+	 * ended, or 0 to wait for the handler however long it takes. Handlers which fail end their connection themselves,
+	 * this only bounds those which never answer (such as a request whose event was cancelled).
+	 */
+	public int getHandlerTimeout() {
+		return handlerTimeout;
+	}
+	
+	public EndpointOptions setHandlerTimeout(int handlerTimeout) {
+		this.handlerTimeout = Math.max(0, handlerTimeout);
+		return this;
+	}
+	
+	/**
+	 * @return The largest request body, in bytes, the {@link Transport#NIO} transport will buffer before handing the
+	 * connection to a blocking handler instead.
+	 */
+	public int getMaxBufferedBody() {
+		return maxBufferedBody;
+	}
+	
+	public EndpointOptions setMaxBufferedBody(int maxBufferedBody) {
+		this.maxBufferedBody = maxBufferedBody;
+		return this;
+	}
+	
+	/**
+	 * @return The number of threads accepting connections on this endpoint.
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+	
+	public EndpointOptions setAcceptors(int acceptors) {
+		this.acceptors = Math.max(1, acceptors);
+		return this;
+	}
+	
+	/**
+	 * @return True if each acceptor binds its own SO_REUSEPORT socket, letting the kernel balance accepts and allowing
+	 * another server to bind the same port. Only applies to cleartext endpoints on platforms which support it, other
+	 * endpoints share one socket between their acceptors.
+	 */
+	public boolean isReusePort() {
+		return reusePort;
+	}
+	
+	public EndpointOptions setReusePort(boolean reusePort) {
+		this.reusePort = reusePort;
+		return this;
+	}
+	
+	/**
+	 * @return True if the blocking listener of a cleartext endpoint is bound by the server through a channel, so files
+	 * are sent by the kernel (sendfile) rather than copied through the heap. The socket is then not created by the
+	 * router, so the router's own socket settings do not apply to it.
+	 */
+	public boolean isZeroCopyFiles() {
+		return zeroCopyFiles;
+	}
+	
+	public EndpointOptions setZeroCopyFiles(boolean zeroCopyFiles) {
+		this.zeroCopyFiles = zeroCopyFiles;
+		return this;
+	}
+	
+	/**
+	 * @return The accept backlog of sockets bound by the server itself (SO_REUSEPORT, zero copy and {@link Transport#NIO} sockets).
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+	
+	public EndpointOptions setBacklog(int backlog) {
+		this.backlog = backlog;
+		return this;
+	}
+	
+	/**
+	 * @return The local address sockets bound by the server itself (SO_REUSEPORT, zero copy and {@link Transport#NIO}
+	 * sockets) listen on, or null to listen on every address. Sockets created by the router keep its own address.
+	 */
+	public InetAddress getBindAddress() {
+		return bindAddress;
+	}
+	
+	public EndpointOptions setBindAddress(InetAddress bindAddress) {
+		this.bindAddress = bindAddress;
+		return this;
+	}
+	
+	/**
+	 * @return The largest number of responses to pipelined requests held back to be written together. Responses are
+	 * held only while the next request has already been received, a depth of 1 writes every response on its own.
+	 */
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+	
+	public EndpointOptions setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+		return this;
+	}
+	
+	/**
+	 * @return The number of resolved routes (per protocol) remembered for this endpoint, 0 resolves every request with
+	 * the router.
+	 */
+	public int getRouteCacheSize() {
+		return routeCacheSize;
+	}
+	
+	public EndpointOptions setRouteCacheSize(int routeCacheSize) {
+		this.routeCacheSize = Math.max(0, routeCacheSize);
+		return this;
+	}
+	
+	/**
+	 * @return How responses without an entity tag supplied by their handler are tagged.
+	 */
+	public ETagMode getETagMode() {
+		return etagMode;
+	}
+	
+	public EndpointOptions setETagMode(ETagMode etagMode) {
+		this.etagMode = etagMode;
+		return this;
+	}
+	
+	/**
+	 * @return The number of bytes of compressed response bodies remembered for this endpoint, so identical bodies are
+	 * only compressed once, 0 compresses every response. Only bodies sent under a {@link CompressionPolicy} which is
+	 * cached are remembered.
+	 */
+	public long getCompressionCacheSize() {
+		return compressionCacheSize;
+	}
+	
+	public EndpointOptions setCompressionCacheSize(long compressionCacheSize) {
+		this.compressionCacheSize = Math.max(0, compressionCacheSize);
+		return this;
+	}
+	
+	/**
+	 * @return True if files sent by a response are replaced by their precompressed sidecar (the file with .br or .gz
+	 * appended) when the client accepts its coding and the sidecar is not older than the file.
+	 */
+	public boolean isPrecompressedFiles() {
+		return precompressedFiles;
+	}
+	
+	public EndpointOptions setPrecompressedFiles(boolean precompressedFiles) {
+		this.precompressedFiles = precompressedFiles;
+		return this;
+	}
+	
+	/**
+	 * @return The number of bytes of responses kept as shared dictionaries for this endpoint, which later responses are
+	 * compressed against for clients holding them (Compression Dictionary Transport), 0 to keep none.
+	 */
+	public long getDictionaryStoreSize() {
+		return dictionaryStoreSize;
+	}
+	
+	public EndpointOptions setDictionaryStoreSize(long dictionaryStoreSize) {
+		this.dictionaryStoreSize = Math.max(0, dictionaryStoreSize);
+		return this;
+	}
+	
+	/**
+	 * @return The {@link CompressionPolicy} of responses to paths without a policy of their own.
+	 */
+	public CompressionPolicy getCompressionPolicy() {
+		return compressionPolicy;
+	}
+	
+	public EndpointOptions setCompressionPolicy(CompressionPolicy compressionPolicy) {
+		this.compressionPolicy = compressionPolicy;
+		return this;
+	}
+	
+	/**
+	 * Sets the {@link CompressionPolicy} of responses to the paths (routes) under a prefix.
+	 * 
+	 * @param pathPrefix The prefix, such as /static/.
+	 * @param compressionPolicy The policy of the paths.
+	 * @return These options.
+	 */
+	public EndpointOptions setCompressionPolicy(String pathPrefix, CompressionPolicy compressionPolicy) {
+		pathCompressionPolicies.put(pathPrefix, compressionPolicy);
+		return this;
+	}
+	
+	/**
+	 * Finds the {@link CompressionPolicy} of a path, set for the longest prefix of the path.
+	 * 
+	 * @param path The path of the request, without its query string.
+	 * @return The policy of the path, or the endpoint's policy if no prefix matches.
+	 */
+	public CompressionPolicy getCompressionPolicy(String path) {
+		CompressionPolicy policy = compressionPolicy;
+		int longest = -1;
+		for (Map.Entry<String, CompressionPolicy> entry : pathCompressionPolicies.entrySet()) {
+			String prefix = entry.getKey();
+			if (prefix.length() > longest && path.startsWith(prefix)) {
+				policy = entry.getValue();
+				longest = prefix.length();
+			}
+		}
+		return policy;
+	}
+
+}
@@ -0,0 +1,145 @@
+package net.winrob.proteus.server;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Runs TLS handshakes on a bounded pool so a slow client cannot stall the accept loop. Handshakes which do not
+ * complete before the deadline have their socket closed, and handshakes are refused while the queue is full.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class HandshakeExecutor {
+	
+	private final ThreadPoolExecutor pool;
+	private final ScheduledExecutorService deadlines;
+	private final int deadline;
+	private final ServerMetrics metrics;
+	
+	/**
+	 * Creates a new handshake pool.
+	 * 
+	 * @param name The prefix used when naming handshake threads.
+	 * @param threads The number of handshakes run at once.
+	 * @param queueCapacity The number of accepted sockets which may wait for a handshake thread.
+	 * @param deadline The time, in milliseconds, a handshake may take (including time spent queued).
+	 * @param metrics The {@link ServerMetrics} which records handshakes.
+	 */
+	public HandshakeExecutor(String name, int threads, int queueCapacity, int deadline, ServerMetrics metrics) {
+		AtomicLong counter = new AtomicLong();
+		this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), (r) -> {
+			Thread thread = new Thread(r, name + "-Handshake-" + counter.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.pool.allowCoreThreadTimeOut(true);
+		this.deadlines = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread thread = new Thread(r, name + "-HandshakeDeadline");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.deadline = deadline;
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Queues a handshake, closing the socket immediately if the queue is full.
+	 * 
+	 * @param socket The socket to handshake on.
+	 * @param task The {@link HandshakeTask} told how the handshake ended.
+	 */
+	public void handshake(SSLSocket socket, HandshakeTask task) {
+		long accepted = System.nanoTime();
+		AtomicBoolean expired = new AtomicBoolean();
+		ScheduledFuture<?> timeout = deadlines.schedule(() -> {
+			expired.set(true);
+			closeQuietly(socket);
+		}, deadline, TimeUnit.MILLISECONDS);
+		metrics.handshakeQueued();
+		try {
+			pool.execute(() -> {
+				long started = System.nanoTime();
+				metrics.handshakeStarted(started - accepted);
+				boolean completed = false;
+				try {
+					if (!expired.get()) {
+						socket.startHandshake();
+						// the deadline covers the handshake alone, a timeout which has already begun closes the socket
+						completed = timeout.cancel(false);
+					}
+				} catch (Exception e) {
+					if (!expired.get()) {
+						metrics.handshakeFailed();
+						task.failed(e);
+					}
+					closeQuietly(socket);
+				} finally {
+					timeout.cancel(false);
+					if (expired.get()) {
+						metrics.handshakeTimedOut();
+					}
+				}
+				if (completed) {
+					metrics.handshakeCompleted(System.nanoTime() - started);
+					try {
+						task.completed();
+					} catch (Exception e) {
+						task.failed(e);
+						closeQuietly(socket);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			timeout.cancel(false);
+			metrics.handshakeRejected();
+			closeQuietly(socket);
+		}
+	}
+	
+	public void shutdown() {
+		pool.shutdownNow();
+		deadlines.shutdownNow();
+	}
+	
+	private static void closeQuietly(SSLSocket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+	
+	/**
+	 * Told how a handshake run on the pool ended.
+	 */
+	public interface HandshakeTask {
+		
+		/**
+		 * Called on the handshake thread once the handshake completes before its deadline, which no longer applies.
+		 * 
+		 * @throws Exception If the connection cannot be handed on, the socket is closed afterwards.
+		 */
+		void completed() throws Exception;
+		
+		/**
+		 * Called if the handshake fails before its deadline, or {@link #completed()} fails, the socket is closed
+		 * afterwards.
+		 * 
+		 * @param e The cause of the failure.
+		 */
+		void failed(Exception e);
+		
+	}
+
+}
@@ -0,0 +1,95 @@
+package net.winrob.proteus.server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations with fixed, roughly exponential millisecond buckets.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class LatencyHistogram {
+	
+	private static final long[] BOUNDS = new long[] {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, Long.MAX_VALUE};
+	
+	private final AtomicLongArray buckets;
+	private final LongAdder count;
+	private final LongAdder totalNanos;
+	
+	public LatencyHistogram() {
+		buckets = new AtomicLongArray(BOUNDS.length);
+		count = new LongAdder();
+		totalNanos = new LongAdder();
+	}
+	
+	/**
+	 * Records a single duration.
+	 * 
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		long millis = nanos / 1_000_000;
+		int i = 0;
+		while (millis > BOUNDS[i]) {
+			i++;
+		}
+		buckets.incrementAndGet(i);
+		count.increment();
+		totalNanos.add(nanos);
+	}
+	
+	/**
+	 * @return The inclusive upper bound, in milliseconds, of each bucket. The last bucket is unbounded.
+	 */
+	public long[] getBucketBounds() {
+		return BOUNDS.clone();
+	}
+	
+	/**
+	 * @return The number of durations recorded in each bucket.
+	 */
+	public long[] getBucketCounts() {
+		long[] counts = new long[BOUNDS.length];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	/**
+	 * @return The mean duration in milliseconds.
+	 */
+	public double getMean() {
+		long n = count.sum();
+		return n > 0 ? totalNanos.sum() / 1_000_000d / n : 0;
+	}
+	
+	/**
+	 * Estimates a percentile as the upper bound of the bucket which contains it.
+	 * 
+	 * @param percentile The percentile, between 0 and 100.
+	 * @return The estimated duration in milliseconds, or {@link Long#MAX_VALUE} if it falls in the last bucket.
+	 */
+	public long getPercentile(double percentile) {
+		long[] counts = getBucketCounts();
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		long target = (long) Math.ceil(total * percentile / 100d);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target && seen > 0) {
+				return BOUNDS[i];
+			}
+		}
+		return 0;
+	}
+
+}
@@ -0,0 +1,74 @@
+package net.winrob.proteus.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * Opens listening sockets with SO_REUSEPORT, allowing several sockets (in this or another process) to bind the same
+ * port while the kernel balances new connections between them.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ReusePort {
+	
+	private static Boolean supported;
+	
+	/**
+	 * @return True if the platform supports SO_REUSEPORT on listening sockets (Linux and most BSDs).
+	 */
+	public static synchronized boolean isSupported() {
+		if (supported == null) {
+			try (ServerSocket socket = new ServerSocket()) {
+				supported = socket.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+			} catch (IOException e) {
+				supported = false;
+			}
+		}
+		return supported;
+	}
+	
+	/**
+	 * Opens a blocking server socket bound with SO_REUSEPORT.
+	 * 
+	 * @param address The local address to be bound, or null for every address.
+	 * @param port The port to be bound.
+	 * @param backlog The accept backlog.
+	 * @return The bound socket.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static ServerSocket openSocket(InetAddress address, int port, int backlog) throws IOException {
+		// a socket of a channel accepts sockets with channels, which files can be transferred to directly
+		return openChannel(address, port, backlog, true).socket();
+	}
+	
+	/**
+	 * Opens a server socket channel, optionally bound with SO_REUSEPORT.
+	 * 
+	 * @param address The local address to be bound, or null for every address.
+	 * @param port The port to be bound.
+	 * @param backlog The accept backlog.
+	 * @param reusePort True if SO_REUSEPORT should be set.
+	 * @return The bound channel.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public static ServerSocketChannel openChannel(InetAddress address, int port, int backlog, boolean reusePort) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try {
+			if (reusePort) {
+				channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+				channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			}
+			channel.bind(new InetSocketAddress(address, port), backlog);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		return channel;
+	}
+
+}
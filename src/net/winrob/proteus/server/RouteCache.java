@@ -0,0 +1,164 @@
+package net.winrob.proteus.server;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import net.winrob.proteus.routing.CompositeRouter;
+import net.winrob.proteus.routing.Hostname;
+import net.winrob.proteus.routing.HttpRoute;
+import net.winrob.proteus.routing.PathComprehension;
+import net.winrob.proteus.routing.WebSocketRoute;
+
+/**
+ * Remembers the routes a {@link CompositeRouter} resolved for each host and path, so repeated requests for the same
+ * resource are routed with a single hash lookup instead of matching the path against every registered route again.
+ * Hosts are normalised in the key (lower case, without a port or trailing dot) so clients cannot spread one resource
+ * over many entries, while the router is still given the Host header as it was sent. Only routes without path
+ * parameters are remembered, whose pattern is the path itself: a route the router resolves carries the parameters of
+ * the path it matched, so it cannot be shared by the other paths of its pattern, and paths which differ in a parameter
+ * (or matched no route) would each take an entry and push out the routes which are requested again. The cache is
+ * bounded, once full the least recently used route is dropped.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class RouteCache {
+	
+	// The caches of routers which are resolved without an endpoint's own cache.
+	private static final Map<CompositeRouter, RouteCache> SHARED = Collections.synchronizedMap(new WeakHashMap<>());
+	
+	private static final int SHARED_CAPACITY = 4096;
+	
+	// Longer paths are resolved by the router every time rather than given an entry.
+	private static final int MAX_PATH_LENGTH = 2048;
+	
+	private final CompositeRouter router;
+	private final int capacity;
+	
+	private final Map<String, HttpRoute> httpRoutes;
+	private final Map<String, WebSocketRoute> webSocketRoutes;
+	
+	/**
+	 * Creates a new route cache.
+	 * 
+	 * @param router The {@link CompositeRouter} routes are resolved by.
+	 * @param capacity The maximum number of routes remembered per protocol, 0 resolves every lookup with the router.
+	 */
+	public RouteCache(CompositeRouter router, int capacity) {
+		this.router = router;
+		this.capacity = capacity;
+		httpRoutes = new LruMap<>(capacity);
+		webSocketRoutes = new LruMap<>(capacity);
+	}
+	
+	/**
+	 * Finds the cache shared by every request routed by a router outside of an endpoint (which has its own).
+	 * 
+	 * @param router The {@link CompositeRouter} routes are resolved by.
+	 * @return The route cache of the router.
+	 */
+	public static RouteCache forRouter(CompositeRouter router) {
+		return SHARED.computeIfAbsent(router, r -> new RouteCache(r, SHARED_CAPACITY));
+	}
+	
+	public CompositeRouter getRouter() {
+		return router;
+	}
+	
+	/**
+	 * Finds the HTTP route for a request.
+	 * 
+	 * @param host The Host header of the request.
+	 * @param path The path of the request, without its query string.
+	 * @return The route, or null if no route matches.
+	 */
+	public HttpRoute getHttpRoute(String host, String path) {
+		if (capacity <= 0 || path.length() > MAX_PATH_LENGTH) {
+			return router.getHttpRoute(new Hostname(host), path);
+		}
+		String key = normalise(host) + ' ' + path;
+		HttpRoute route;
+		synchronized (httpRoutes) {
+			route = httpRoutes.get(key);
+		}
+		if (route == null) {
+			route = router.getHttpRoute(new Hostname(host), path);
+			if (route != null && isStatic(route.getPathComprehension())) {
+				synchronized (httpRoutes) {
+					httpRoutes.put(key, route);
+				}
+			}
+		}
+		return route;
+	}
+	
+	/**
+	 * Finds the web socket route for a request.
+	 * 
+	 * @param host The Host header of the request.
+	 * @param path The path of the request, without its query string.
+	 * @return The route, or null if no route matches.
+	 */
+	public WebSocketRoute getWebSocketRoute(String host, String path) {
+		if (capacity <= 0 || path.length() > MAX_PATH_LENGTH) {
+			return router.getWebSocketRoute(new Hostname(host), path);
+		}
+		String key = normalise(host) + ' ' + path;
+		WebSocketRoute route;
+		synchronized (webSocketRoutes) {
+			route = webSocketRoutes.get(key);
+		}
+		if (route == null) {
+			route = router.getWebSocketRoute(new Hostname(host), path);
+			if (route != null && isStatic(route.getPathComprehension())) {
+				synchronized (webSocketRoutes) {
+					webSocketRoutes.put(key, route);
+				}
+			}
+		}
+		return route;
+	}
+	
+	// A route which took no parameters from the path is the same for every request of the path.
+	private static boolean isStatic(PathComprehension comprehension) {
+		return comprehension == null || comprehension.getPathParameters() == null || comprehension.getPathParameters().keySet().isEmpty();
+	}
+	
+	// Host names are case insensitive, and the port and a trailing dot name the same host.
+	private static String normalise(String host) {
+		if (host == null) {
+			return null;
+		}
+		String hostname = host.trim();
+		// an IPv6 literal is bracketed, its colons are not a port
+		int port = hostname.lastIndexOf(':');
+		if (port >= 0 && port > hostname.lastIndexOf(']')) {
+			hostname = hostname.substring(0, port);
+		}
+		if (hostname.endsWith(".")) {
+			hostname = hostname.substring(0, hostname.length() - 1);
+		}
+		return hostname.toLowerCase();
+	}
+	
+	private static class LruMap<V> extends LinkedHashMap<String, V> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int capacity;
+		
+		public LruMap(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+		
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+			return size() > capacity;
+		}
+	
+	}
+
+}
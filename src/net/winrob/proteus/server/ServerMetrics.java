@@ -0,0 +1,183 @@
+package net.winrob.proteus.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.winrob.proteus.compression.CompressionMetrics;
+
+/**
+ * Counters and gauges describing the runtime behavior of a single {@link net.winrob.proteus.ProteusServer}.
+ * All values are safe to read from any thread.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class ServerMetrics {
+	
+	private final LongAdder handlerThreadsCreated;
+	private final AtomicInteger activeHandlers;
+	private final AtomicInteger peakActiveHandlers;
+	
+	private final Object rateLock;
+	private long rateSampleTime;
+	private long rateSampleCount;
+	
+	private final AtomicInteger pendingHandshakes;
+	private final AtomicInteger peakPendingHandshakes;
+	private final LatencyHistogram handshakeQueueWait;
+	private final LatencyHistogram handshakeLatency;
+	private final LongAdder handshakesFailed;
+	private final LongAdder handshakesRejected;
+	private final LongAdder handshakesTimedOut;
+	
+	private final CompressionMetrics compression;
+	
+	public ServerMetrics() {
+		handlerThreadsCreated = new LongAdder();
+		activeHandlers = new AtomicInteger();
+		peakActiveHandlers = new AtomicInteger();
+		rateLock = new Object();
+		rateSampleTime = System.nanoTime();
+		rateSampleCount = 0;
+		pendingHandshakes = new AtomicInteger();
+		peakPendingHandshakes = new AtomicInteger();
+		handshakeQueueWait = new LatencyHistogram();
+		handshakeLatency = new LatencyHistogram();
+		handshakesFailed = new LongAdder();
+		handshakesRejected = new LongAdder();
+		handshakesTimedOut = new LongAdder();
+		compression = new CompressionMetrics();
+	}
+	
+	protected void threadCreated() {
+		handlerThreadsCreated.increment();
+	}
+	
+	protected void handlerStarted() {
+		int active = activeHandlers.incrementAndGet();
+		peakActiveHandlers.accumulateAndGet(active, Math::max);
+	}
+	
+	protected void handlerFinished() {
+		activeHandlers.decrementAndGet();
+	}
+	
+	protected void handshakeQueued() {
+		int pending = pendingHandshakes.incrementAndGet();
+		peakPendingHandshakes.accumulateAndGet(pending, Math::max);
+	}
+	
+	protected void handshakeStarted(long waitNanos) {
+		pendingHandshakes.decrementAndGet();
+		handshakeQueueWait.record(waitNanos);
+	}
+	
+	protected void handshakeCompleted(long nanos) {
+		handshakeLatency.record(nanos);
+	}
+	
+	protected void handshakeFailed() {
+		handshakesFailed.increment();
+	}
+	
+	protected void handshakeRejected() {
+		pendingHandshakes.decrementAndGet();
+		handshakesRejected.increment();
+	}
+	
+	protected void handshakeTimedOut() {
+		handshakesTimedOut.increment();
+	}
+	
+	/**
+	 * @return The total number of threads created to run connection handlers since the server was built.
+	 */
+	public long getHandlerThreadsCreated() {
+		return handlerThreadsCreated.sum();
+	}
+	
+	/**
+	 * @return The number of connection handlers currently running.
+	 */
+	public int getActiveHandlers() {
+		return activeHandlers.get();
+	}
+	
+	/**
+	 * @return The largest number of connection handlers which have run at the same time.
+	 */
+	public int getPeakActiveHandlers() {
+		return peakActiveHandlers.get();
+	}
+	
+	/**
+	 * Samples the handler thread creation rate since the previous call to this method.
+	 * 
+	 * @return The number of handler threads created per second over the sampled interval.
+	 */
+	public double sampleThreadCreationRate() {
+		synchronized (rateLock) {
+			long now = System.nanoTime();
+			long count = handlerThreadsCreated.sum();
+			double elapsed = (now - rateSampleTime) / 1_000_000_000d;
+			double rate = elapsed > 0 ? (count - rateSampleCount) / elapsed : 0;
+			rateSampleTime = now;
+			rateSampleCount = count;
+			return rate;
+		}
+	}
+	
+	/**
+	 * @return The number of accepted secure sockets waiting for a handshake thread.
+	 */
+	public int getPendingHandshakes() {
+		return pendingHandshakes.get();
+	}
+	
+	/**
+	 * @return The largest number of accepted secure sockets which have waited for a handshake thread at once.
+	 */
+	public int getPeakPendingHandshakes() {
+		return peakPendingHandshakes.get();
+	}
+	
+	/**
+	 * @return The time accepted secure sockets spent waiting for a handshake thread.
+	 */
+	public LatencyHistogram getHandshakeQueueWait() {
+		return handshakeQueueWait;
+	}
+	
+	/**
+	 * @return The duration of successful TLS handshakes.
+	 */
+	public LatencyHistogram getHandshakeLatency() {
+		return handshakeLatency;
+	}
+	
+	public long getHandshakesFailed() {
+		return handshakesFailed.sum();
+	}
+	
+	/**
+	 * @return The number of sockets closed because the handshake queue was full.
+	 */
+	public long getHandshakesRejected() {
+		return handshakesRejected.sum();
+	}
+	
+	/**
+	 * @return The number of sockets closed because their handshake passed the deadline.
+	 */
+	public long getHandshakesTimedOut() {
+		return handshakesTimedOut.sum();
+	}
+	
+	/**
+	 * @return The bodies compressed by responses, their compression ratio and the time spent compressing them.
+	 */
+	public CompressionMetrics getCompression() {
+		return compression;
+	}
+
+}
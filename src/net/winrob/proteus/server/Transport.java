@@ -0,0 +1,22 @@
+package net.winrob.proteus.server;
+
+/**
+ * The socket transport used by an endpoint to accept and read client connections.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public enum Transport {
+	
+	/**
+	 * A blocking {@link java.net.ServerSocket}, every open connection is handled by its own thread.
+	 */
+	BLOCKING,
+	
+	/**
+	 * A non-blocking {@link java.nio.channels.Selector} reactor, only complete requests are handed to worker threads.
+	 * Only cleartext HTTP/1.1 endpoints are supported, secure endpoints fall back to {@link #BLOCKING}.
+	 */
+	NIO;
+
+}
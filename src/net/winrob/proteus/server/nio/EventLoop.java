@@ -0,0 +1,155 @@
+package net.winrob.proteus.server.nio;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single selector thread which performs all reads and writes for the connections registered to it.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class EventLoop implements Runnable {
+	
+	private final NioTransport transport;
+	private final Selector selector;
+	private final Queue<Runnable> tasks;
+	private final Thread thread;
+	
+	private volatile boolean running;
+	private long lastIdleCheck;
+	
+	protected EventLoop(NioTransport transport, String name) throws IOException {
+		this.transport = transport;
+		this.selector = Selector.open();
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.thread = new Thread(this, name);
+		running = true;
+		lastIdleCheck = System.currentTimeMillis();
+	}
+	
+	protected void start() {
+		thread.start();
+	}
+	
+	/**
+	 * Runs a task on this loop's thread.
+	 * 
+	 * @param task The task to be run.
+	 */
+	public void execute(Runnable task) {
+		if (Thread.currentThread() == thread) {
+			task.run();
+		} else {
+			tasks.add(task);
+			selector.wakeup();
+		}
+	}
+	
+	public boolean inLoop() {
+		return Thread.currentThread() == thread;
+	}
+	
+	protected void register(SocketChannel channel) {
+		execute(() -> {
+			try {
+				channel.configureBlocking(false);
+				NioConnection connection = new NioConnection(transport, this, channel);
+				connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+			} catch (IOException e) {
+				try {
+					channel.close();
+				} catch (IOException e1) {
+					// ignore
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Deregisters a channel so it can be switched back to blocking mode. The key is flushed from the selector
+	 * outside of key processing, after which the callback is run on this loop's thread.
+	 * 
+	 * @param key The key of the channel to be deregistered.
+	 * @param then The callback run once the channel is no longer registered.
+	 */
+	protected void deregister(SelectionKey key, Runnable then) {
+		key.cancel();
+		tasks.add(() -> {
+			try {
+				selector.selectNow();
+			} catch (IOException e) {
+				// ignore
+			}
+			then.run();
+		});
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select(1000);
+				Runnable task;
+				while ((task = tasks.poll()) != null) {
+					task.run();
+				}
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					NioConnection connection = (NioConnection) key.attachment();
+					try {
+						if (key.isValid() && key.isWritable()) {
+							connection.onWritable();
+						}
+						if (key.isValid() && key.isReadable()) {
+							connection.onReadable();
+						}
+					} catch (IOException | RuntimeException e) {
+						connection.closeNow();
+					}
+				}
+				closeIdle();
+			} catch (ClosedChannelException e) {
+				// closed while registering
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		for (SelectionKey key : selector.keys()) {
+			((NioConnection) key.attachment()).closeNow();
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+	
+	// Idle keep-alive connections are closed here rather than by a socket timeout.
+	private void closeIdle() {
+		long now = System.currentTimeMillis();
+		if (now - lastIdleCheck < 1000) return;
+		lastIdleCheck = now;
+		for (SelectionKey key : selector.keys()) {
+			NioConnection connection = (NioConnection) key.attachment();
+			if (connection != null && (connection.isIdleSince(now - connection.getKeepAliveTimeout()) || connection.isAbandoned(now))) {
+				connection.closeNow();
+			}
+		}
+	}
+	
+	protected void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+}
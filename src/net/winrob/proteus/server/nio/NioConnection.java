@@ -0,0 +1,550 @@
+package net.winrob.proteus.server.nio;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+import net.winrob.proteus.api.response.ResponseCode;
+import net.winrob.proteus.http.ClientConnection;
+import net.winrob.proteus.http.KnownHeader;
+import net.winrob.proteus.http.MalformedRequestException;
+import net.winrob.proteus.http.RequestHead;
+import net.winrob.proteus.http.RequestHeadParser;
+
+/**
+ * A non-blocking client connection owned by an {@link EventLoop}. Bytes are read into a connection buffer until a
+ * complete request (head and body) is available, which is then handed to a worker. Responses are queued and written
+ * by the loop as the socket accepts them.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class NioConnection extends ClientConnection {
+	
+	private static final byte[] PREFACE = "PRI * HTTP/2.0".getBytes(StandardCharsets.US_ASCII);
+	private static final int MAX_QUEUED_BYTES = 262144;
+	
+	private final NioTransport transport;
+	private final EventLoop loop;
+	private final SocketChannel channel;
+	private final ChannelOutputStream outputStream;
+	
+	private SelectionKey key;
+	private ByteBuffer readBuffer;
+	
+	private final Deque<ByteBuffer> writeQueue;
+	private long queuedBytes;
+	private FileRegion pendingFile;
+	
+	private boolean processing;
+	private boolean closeAfterWrites;
+	private boolean fallbackPending;
+	private long lastActivity;
+	private int scanned;
+	private volatile boolean pipelined;
+	
+	private InputStream body;
+	
+	protected NioConnection(NioTransport transport, EventLoop loop, SocketChannel channel) throws IOException {
+		super(channel.socket(), transport.getRouter(), null, null, transport.getKeepAliveTimeout(), transport.getKeepAliveMax());
+		this.transport = transport;
+		this.loop = loop;
+		this.channel = channel;
+		this.outputStream = new ChannelOutputStream();
+		setPipelineDepth(transport.getOptions().getPipelineDepth());
+		setHandlerTimeout(transport.getOptions().getHandlerTimeout());
+		this.readBuffer = ByteBuffer.allocate(8192);
+		this.writeQueue = new ArrayDeque<>();
+		this.body = InputStream.nullInputStream();
+		lastActivity = System.currentTimeMillis();
+	}
+	
+	protected void setKey(SelectionKey key) {
+		this.key = key;
+	}
+	
+	public SocketChannel getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * @return A stream over the body of the request currently being handled.
+	 */
+	@Override
+	public InputStream getInputStream() {
+		return body;
+	}
+	
+	@Override
+	public OutputStream getOutputStream() {
+		return outputStream;
+	}
+	
+	@Override
+	public boolean isOpen() {
+		return channel.isOpen();
+	}
+	
+	@Override
+	public void resume() {
+		super.resume();
+		loop.execute(() -> {
+			processing = false;
+			lastActivity = System.currentTimeMillis();
+			processBuffer();
+			updateInterest();
+		});
+	}
+	
+	@Override
+	public void finish() {
+		super.finish();
+		loop.execute(() -> {
+			processing = false;
+			closeAfterWrites = true;
+			if (!hasPendingWrites()) {
+				closeNow();
+			} else {
+				updateInterest();
+			}
+		});
+	}
+	
+	@Override
+	public void close() {
+		if (!isDetached()) {
+			finish();
+		}
+	}
+	
+	protected void onReadable() throws IOException {
+		if (!readBuffer.hasRemaining()) {
+			int limit = transport.getOptions().getMaxHeadSize() + transport.getOptions().getMaxBufferedBody();
+			if (readBuffer.capacity() >= limit) {
+				closeNow();
+				return;
+			}
+			ByteBuffer grown = ByteBuffer.allocate(Math.min(limit, readBuffer.capacity() * 2));
+			readBuffer.flip();
+			grown.put(readBuffer);
+			readBuffer = grown;
+		}
+		int read = channel.read(readBuffer);
+		if (read < 0) {
+			closeNow();
+			return;
+		}
+		lastActivity = System.currentTimeMillis();
+		processBuffer();
+	}
+	
+	@Override
+	protected boolean hasPipelinedRequest() {
+		return pipelined;
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		outputStream.flushHeld();
+	}
+	
+	/**
+	 * Queues the head and body of a response as they are, with any bytes still buffered, so the loop writes them with a
+	 * single gathering write.
+	 */
+	@Override
+	public void writeResponse(byte[] head, int headLength, byte[] body, int offset, int length) throws IOException {
+		outputStream.writeResponse(head, headLength, body, offset, length);
+	}
+	
+	/**
+	 * Queues the file region behind the bytes already queued, the loop sends it with {@link FileChannel#transferTo} as
+	 * the socket accepts it. The caller is blocked until the whole region has been written.
+	 */
+	@Override
+	public void writeFile(FileChannel file, long position, long count) throws IOException {
+		flush();
+		FileRegion region = new FileRegion(file, position, count);
+		synchronized (writeQueue) {
+			if (!channel.isOpen()) throw new IOException("Connection closed");
+			pendingFile = region;
+		}
+		loop.execute(this::flushWrites);
+		synchronized (writeQueue) {
+			try {
+				while (pendingFile == region && channel.isOpen()) {
+					writeQueue.wait(1000);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		if (region.failure != null) throw region.failure;
+		if (region.count > 0) throw new IOException("Connection closed");
+	}
+	
+	private void processBuffer() {
+		if (processing || !channel.isOpen() || isDetached()) return;
+		if (!frameRequest()) {
+			// nothing more can be handled until the client sends more bytes
+			pipelined = false;
+			try {
+				outputStream.flushHeld();
+			} catch (IOException e) {
+				closeNow();
+			}
+		}
+	}
+	
+	// Frames the next request in the read buffer and hands it to a worker once it is complete.
+	private boolean frameRequest() {
+		byte[] data = readBuffer.array();
+		int length = readBuffer.position();
+		int start = 0;
+		while (start + 1 < length && data[start] == '\r' && data[start + 1] == '\n') {
+			start += 2;
+		}
+		if (start > 0) {
+			scanned = 0;
+			consume(start);
+			length = readBuffer.position();
+		}
+		if (length == 0) {
+			updateInterest();
+			return false;
+		}
+		int prefix = Math.min(length, PREFACE.length);
+		if (Arrays.equals(data, 0, prefix, PREFACE, 0, prefix)) {
+			if (length >= PREFACE.length) {
+				fallback();
+			} else {
+				updateInterest();
+			}
+			return false;
+		}
+		int headEnd = RequestHeadParser.findHeadEnd(data, scanned, length);
+		if (headEnd < 0) {
+			scanned = Math.max(0, length - 3);
+			if (length >= transport.getOptions().getMaxHeadSize()) {
+				reject(ResponseCode.BAD_REQUEST);
+			} else {
+				updateInterest();
+			}
+			return false;
+		}
+		scanned = 0;
+		RequestHead head;
+		try {
+			head = RequestHeadParser.parse(data, 0, headEnd);
+		} catch (MalformedRequestException e) {
+			reject(ResponseCode.BAD_REQUEST);
+			return false;
+		}
+		if (head.hasHeader(KnownHeader.TRANSFER_ENCODING) || head.hasHeader(KnownHeader.UPGRADE) || head.hasHeader(KnownHeader.SEC_WEBSOCKET_KEY)) {
+			fallback();
+			return false;
+		}
+		long contentLength = 0;
+		if (head.hasHeader(KnownHeader.CONTENT_LENGTH)) {
+			try {
+				contentLength = Long.parseLong(head.getHeader(KnownHeader.CONTENT_LENGTH));
+			} catch (NumberFormatException e) {
+				contentLength = -1;
+			}
+			if (contentLength < 0) {
+				closeNow();
+				return false;
+			}
+		}
+		// bodies too large to buffer (however large, as long as the length is valid) are streamed by a blocking handler
+		if (contentLength > transport.getOptions().getMaxBufferedBody()) {
+			fallback();
+			return false;
+		}
+		int total = headEnd + (int) contentLength;
+		if (length < total) {
+			updateInterest();
+			return false;
+		}
+		body = new ByteArrayInputStream(Arrays.copyOfRange(data, headEnd, total));
+		consume(total);
+		pipelined = readBuffer.position() > 0;
+		processing = true;
+		updateInterest();
+		transport.dispatch(this, head);
+		return true;
+	}
+	
+	// Stops reading and answers the current request with an error, the connection ends once it is written.
+	private void reject(ResponseCode code) {
+		processing = true;
+		readBuffer.clear();
+		updateInterest();
+		transport.reject(this, code);
+	}
+	
+	// Discards the first bytes of the read buffer, keeping any which follow (such as a pipelined request).
+	private void consume(int bytes) {
+		readBuffer.flip();
+		readBuffer.position(bytes);
+		readBuffer.compact();
+	}
+	
+	private void fallback() {
+		try {
+			outputStream.flushHeld();
+		} catch (IOException e) {
+			closeNow();
+			return;
+		}
+		if (hasPendingWrites()) {
+			fallbackPending = true;
+			updateInterest();
+			return;
+		}
+		fallbackPending = false;
+		byte[] buffered = Arrays.copyOf(readBuffer.array(), readBuffer.position());
+		readBuffer.clear();
+		detach();
+		loop.deregister(key, () -> {
+			try {
+				channel.configureBlocking(true);
+				transport.fallback(this, buffered);
+			} catch (IOException e) {
+				closeNow();
+			}
+		});
+	}
+	
+	/**
+	 * Queues bytes to be written to the channel, blocking the caller while too many bytes are already queued. Buffers
+	 * queued together are written together.
+	 * 
+	 * @param buffers The bytes to be written, which must not be modified afterwards.
+	 * @throws IOException If the connection has been closed.
+	 */
+	protected void enqueue(ByteBuffer... buffers) throws IOException {
+		synchronized (writeQueue) {
+			if (!channel.isOpen()) throw new IOException("Connection closed");
+			for (ByteBuffer buffer : buffers) {
+				writeQueue.add(buffer);
+				queuedBytes += buffer.remaining();
+			}
+		}
+		loop.execute(this::flushWrites);
+		if (!loop.inLoop()) {
+			synchronized (writeQueue) {
+				try {
+					while (queuedBytes > MAX_QUEUED_BYTES && channel.isOpen()) {
+						writeQueue.wait(1000);
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+	
+	protected void onWritable() throws IOException {
+		flushWrites();
+	}
+	
+	private void flushWrites() {
+		boolean empty;
+		try {
+			synchronized (writeQueue) {
+				while (!writeQueue.isEmpty()) {
+					// queued responses (such as those to pipelined requests) are written with a single gathering write
+					long written = writeQueue.size() == 1 ? channel.write(writeQueue.peek())
+							: channel.write(writeQueue.toArray(new ByteBuffer[0]));
+					queuedBytes -= written;
+					while (!writeQueue.isEmpty() && !writeQueue.peek().hasRemaining()) {
+						writeQueue.poll();
+					}
+					if (written == 0) break;
+				}
+				if (writeQueue.isEmpty() && pendingFile != null) {
+					// a file is only sent once every byte queued before it has been written
+					if (pendingFile.transferTo(channel)) {
+						pendingFile = null;
+					}
+				}
+				empty = writeQueue.isEmpty() && pendingFile == null;
+				writeQueue.notifyAll();
+			}
+		} catch (IOException e) {
+			closeNow();
+			return;
+		}
+		if (empty) {
+			lastActivity = System.currentTimeMillis();
+			if (closeAfterWrites) {
+				closeNow();
+				return;
+			} else if (fallbackPending) {
+				fallback();
+				return;
+			}
+		}
+		updateInterest();
+	}
+	
+	private boolean hasPendingWrites() {
+		synchronized (writeQueue) {
+			return !writeQueue.isEmpty() || pendingFile != null;
+		}
+	}
+	
+	private void updateInterest() {
+		if (key == null || !key.isValid()) return;
+		int ops = 0;
+		if (!processing && !fallbackPending && !closeAfterWrites) ops |= SelectionKey.OP_READ;
+		if (hasPendingWrites()) ops |= SelectionKey.OP_WRITE;
+		key.interestOps(ops);
+	}
+	
+	// A connection is only idle while no request is being handled and nothing is left to write.
+	protected boolean isIdleSince(long time) {
+		return !processing && !hasPendingWrites() && lastActivity < time;
+	}
+	
+	// A request still being handled is only ended if its response is not written within the handler timeout.
+	protected boolean isAbandoned(long now) {
+		return processing && isHandlerOverdue(now);
+	}
+	
+	protected void closeNow() {
+		if (key != null) key.cancel();
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		synchronized (writeQueue) {
+			writeQueue.clear();
+			queuedBytes = 0;
+			pendingFile = null;
+			writeQueue.notifyAll();
+		}
+	}
+	
+	// A region of a file being sent, the file is read (and closed) by the worker which queued it.
+	private static class FileRegion {
+		
+		private final FileChannel file;
+		private long position;
+		private long count;
+		private IOException failure;
+		
+		public FileRegion(FileChannel file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.count = count;
+		}
+		
+		// Sends as much of the region as the socket accepts, returns true once the region is done.
+		public boolean transferTo(SocketChannel channel) throws IOException {
+			try {
+				long written;
+				while (count > 0 && (written = file.transferTo(position, count, channel)) > 0) {
+					position += written;
+					count -= written;
+				}
+				if (count > 0 && position >= file.size()) {
+					throw new EOFException();
+				}
+			} catch (IOException e) {
+				failure = e;
+				throw e;
+			}
+			return count == 0;
+		}
+		
+	}
+	
+	/**
+	 * Buffers response bytes and queues them on the connection when flushed. Closing the stream ends the connection
+	 * once everything queued has been written, the same as closing a blocking socket's stream. Flushes while the next
+	 * pipelined request has already been read are held back, so responses are queued together.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+		
+		private final byte[] buffer = new byte[8192];
+		private int count;
+		private int held;
+		
+		@Override
+		public synchronized void write(int b) throws IOException {
+			if (count == buffer.length) flushBuffer();
+			buffer[count++] = (byte) b;
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			if (len >= buffer.length) {
+				flushBuffer();
+				enqueue(ByteBuffer.wrap(Arrays.copyOfRange(b, off, off + len)));
+			} else {
+				if (len > buffer.length - count) flushBuffer();
+				System.arraycopy(b, off, buffer, count, len);
+				count += len;
+			}
+		}
+		
+		@Override
+		public synchronized void flush() throws IOException {
+			if (held + 1 < getPipelineDepth() && hasPipelinedRequest()) {
+				held++;
+				return;
+			}
+			flushHeld();
+		}
+		
+		public synchronized void writeResponse(byte[] head, int headLength, byte[] body, int offset, int length) throws IOException {
+			if (headLength + length <= buffer.length - count) {
+				write(head, 0, headLength);
+				write(body, offset, length);
+				return;
+			}
+			ByteBuffer pending = count > 0 ? ByteBuffer.wrap(Arrays.copyOf(buffer, count)) : null;
+			count = 0;
+			ByteBuffer headBuffer = ByteBuffer.wrap(head, 0, headLength);
+			ByteBuffer bodyBuffer = ByteBuffer.wrap(body, offset, length);
+			if (pending != null) {
+				enqueue(pending, headBuffer, bodyBuffer);
+			} else {
+				enqueue(headBuffer, bodyBuffer);
+			}
+		}
+		
+		public synchronized void flushHeld() throws IOException {
+			held = 0;
+			flushBuffer();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flushHeld();
+			finish();
+		}
+		
+		private void flushBuffer() throws IOException {
+			if (count > 0) {
+				enqueue(ByteBuffer.wrap(Arrays.copyOf(buffer, count)));
+				count = 0;
+			}
+		}
+		
+	}
+
+}
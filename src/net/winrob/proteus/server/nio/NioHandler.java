@@ -0,0 +1,40 @@
+package net.winrob.proteus.server.nio;
+
+import net.winrob.proteus.api.response.ResponseCode;
+import net.winrob.proteus.http.RequestHead;
+
+/**
+ * Receives work from a {@link NioTransport}.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public interface NioHandler {
+	
+	/**
+	 * Handles a complete request, called on a worker thread. The connection reads no further requests until
+	 * {@link NioConnection#resume()} or {@link NioConnection#finish()} is called.
+	 * 
+	 * @param connection The connection the request was read from, whose input stream contains the request body.
+	 * @param head The parsed request head.
+	 */
+	void handle(NioConnection connection, RequestHead head);
+	
+	/**
+	 * Answers a request which could not be parsed with an error response, ending the connection.
+	 * 
+	 * @param connection The connection the request was read from.
+	 * @param code The {@link ResponseCode} of the error.
+	 */
+	void reject(NioConnection connection, ResponseCode code);
+	
+	/**
+	 * Takes over a connection the reactor cannot serve (such as protocol upgrades or streamed bodies). The channel
+	 * has been deregistered and switched to blocking mode.
+	 * 
+	 * @param connection The connection being handed over.
+	 * @param buffered Bytes already read from the channel which have not been consumed.
+	 */
+	void fallback(NioConnection connection, byte[] buffered);
+
+}
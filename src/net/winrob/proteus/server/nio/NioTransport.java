@@ -0,0 +1,189 @@
+package net.winrob.proteus.server.nio;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.winrob.proteus.api.response.ResponseCode;
+import net.winrob.proteus.http.RequestHead;
+import net.winrob.proteus.routing.CompositeRouter;
+import net.winrob.proteus.server.AcceptBackoff;
+import net.winrob.proteus.server.EndpointOptions;
+import net.winrob.proteus.server.ReusePort;
+
+/**
+ * A non-blocking transport for a cleartext HTTP/1.1 endpoint. Acceptor threads accept connections, which are spread
+ * across a fixed number of {@link EventLoop}s. Idle connections cost only a selector key, complete requests are
+ * handed to the worker executor.
+ * 
+ * @author Winter Roberts
+ *
+ */
+public class NioTransport {
+	
+	private final String name;
+	private final CompositeRouter router;
+	private final EndpointOptions options;
+	private final NioHandler handler;
+	private final Executor workers;
+	private final int keepAliveTimeout;
+	private final int keepAliveMax;
+	
+	private ServerSocketChannel[] serverChannels;
+	private EventLoop[] loops;
+	private final AtomicInteger nextLoop;
+	private volatile boolean running;
+	
+	/**
+	 * Creates a new (unopened) transport.
+	 * 
+	 * @param name The prefix used when naming transport threads.
+	 * @param router The {@link CompositeRouter} of the endpoint.
+	 * @param options The {@link EndpointOptions} of the endpoint.
+	 * @param handler The {@link NioHandler} which handles requests.
+	 * @param workers The {@link Executor} requests are handled on.
+	 * @param keepAliveTimeout The time, in milliseconds, an idle connection is kept open.
+	 * @param keepAliveMax The maximum number of requests served on a single connection.
+	 */
+	public NioTransport(String name, CompositeRouter router, EndpointOptions options, NioHandler handler, Executor workers, int keepAliveTimeout, int keepAliveMax) {
+		this.name = name;
+		this.router = router;
+		this.options = options;
+		this.handler = handler;
+		this.workers = workers;
+		this.keepAliveTimeout = keepAliveTimeout;
+		this.keepAliveMax = keepAliveMax;
+		this.nextLoop = new AtomicInteger();
+	}
+	
+	/**
+	 * Binds the endpoint's port and starts the event loops. With SO_REUSEPORT each acceptor binds its own channel,
+	 * otherwise the acceptors share one.
+	 * 
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public void open() throws IOException {
+		boolean reusePort = options.isReusePort() && ReusePort.isSupported();
+		serverChannels = new ServerSocketChannel[reusePort ? options.getAcceptors() : 1];
+		try {
+			for (int i = 0; i < serverChannels.length; i++) {
+				serverChannels[i] = ReusePort.openChannel(options.getBindAddress(), router.getPort(), options.getBacklog(), reusePort);
+			}
+		} catch (IOException e) {
+			closeChannels();
+			throw e;
+		}
+		loops = new EventLoop[options.getEventLoops()];
+		for (int i = 0; i < loops.length; i++) {
+			loops[i] = new EventLoop(this, name + "-NioLoop-" + i);
+			loops[i].start();
+		}
+		running = true;
+	}
+	
+	/**
+	 * @param acceptor The index of an acceptor.
+	 * @return The server socket the acceptor accepts from.
+	 */
+	public ServerSocket getServerSocket(int acceptor) {
+		return serverChannels[acceptor % serverChannels.length].socket();
+	}
+	
+	/**
+	 * Accepts connections until the transport is closed, registering each with the next event loop.
+	 * 
+	 * @param acceptor The index of this acceptor.
+	 */
+	public void acceptLoop(int acceptor) {
+		ServerSocketChannel serverChannel = serverChannels[acceptor % serverChannels.length];
+		AcceptBackoff backoff = new AcceptBackoff();
+		while (running) {
+			SocketChannel channel;
+			try {
+				channel = serverChannel.accept();
+				backoff.accepted();
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (running) {
+					e.printStackTrace();
+					backoff.failed();
+				}
+				continue;
+			}
+			try {
+				channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+			} catch (ClosedChannelException e) {
+				return;
+			} catch (IOException e) {
+				if (running) e.printStackTrace();
+			}
+		}
+	}
+	
+	protected void dispatch(NioConnection connection, RequestHead head) {
+		workers.execute(() -> {
+			try {
+				handler.handle(connection, head);
+			} catch (Throwable e) {
+				e.printStackTrace();
+				connection.finish();
+			}
+		});
+	}
+	
+	protected void reject(NioConnection connection, ResponseCode code) {
+		workers.execute(() -> handler.reject(connection, code));
+	}
+	
+	protected void fallback(NioConnection connection, byte[] buffered) {
+		handler.fallback(connection, buffered);
+	}
+	
+	public CompositeRouter getRouter() {
+		return router;
+	}
+	
+	public EndpointOptions getOptions() {
+		return options;
+	}
+	
+	public int getKeepAliveTimeout() {
+		return keepAliveTimeout;
+	}
+	
+	public int getKeepAliveMax() {
+		return keepAliveMax;
+	}
+	
+	/**
+	 * Stops accepting connections and closes every open connection.
+	 */
+	public void close() {
+		running = false;
+		closeChannels();
+		if (loops != null) {
+			for (EventLoop loop : loops) {
+				loop.stop();
+			}
+		}
+	}
+	
+	private void closeChannels() {
+		if (serverChannels == null) return;
+		for (ServerSocketChannel channel : serverChannels) {
+			try {
+				if (channel != null) channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+}